@@ -203,6 +203,17 @@ public class AutoGrader {
 	privilege.tcb.authorizeDestroy(currentThread);
     }
 
+    /**
+     * Notify the autograder that the specified thread missed the deadline of
+     * its current job. A real-time scheduler must call this method once for
+     * each job that misses its deadline.
+     *
+     * @param	thread	the thread that missed its deadline.
+     */
+    public void missedDeadline(KThread thread) {
+	privilege.stats.numDeadlineMisses++;
+    }
+
     /**
      * Notify the autograder that a timer interrupt occurred and was handled by
      * software if a timer interrupt handler was installed. Called by the
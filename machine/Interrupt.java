@@ -4,9 +4,7 @@ package nachos.machine;
 
 import nachos.security.*;
 
-import java.util.TreeSet;
-import java.util.Iterator;
-import java.util.SortedSet;
+import java.util.Arrays;
 
 /**
  * The <tt>Interrupt</tt> class emulates low-level interrupt hardware. The
@@ -53,7 +51,16 @@ public final class Interrupt {
 	privilege.interrupt = new InterruptPrivilege();
 	
 	enabled = false;
-	pending = new TreeSet<PendingInterrupt>();
+
+	times = new long[0];
+	ids = new long[0];
+	types = new String[0];
+	handlers = new Runnable[0];
+	generations = new int[0];
+	heapIndex = new int[0];
+	nextFree = new int[0];
+	heap = new int[0];
+	grow(initialSlots);
     }
 
     /**
@@ -120,17 +127,168 @@ public final class Interrupt {
 	return !enabled;
     }
 
-    private void schedule(long when, String type, Runnable handler) {
+    /**
+     * Advance the simulated time to the next pending interrupt, and invoke
+     * the interrupt handlers that are then due. Called by the idle thread
+     * when no other thread can run, in place of spinning until the next
+     * interrupt. The time skipped is counted as kernel time, just as if the
+     * kernel had spun. Interrupts must be disabled.
+     */
+    public void idle() {
+	Lib.assertTrue(disabled());
+
+	if (numPending == 0)
+	    return;
+
+	Stats stats = privilege.stats;
+	long skipped = times[heap[0]] - stats.totalTicks;
+
+	if (skipped > 0) {
+	    Lib.debug(dbgInt, "Idling for " + skipped + " ticks");
+
+	    stats.kernelTicks += skipped;
+	    stats.totalTicks += skipped;
+	}
+
+	checkIfDue();
+    }
+
+    private long schedule(long when, String type, Runnable handler) {
 	Lib.assertTrue(when>0);
 	
 	long time = privilege.stats.totalTicks + when;
-	PendingInterrupt toOccur = new PendingInterrupt(time, type, handler);
 
 	Lib.debug(dbgInt,
 		  "Scheduling the " + type +
 		  " interrupt handler at time = " + time);
 
-	pending.add(toOccur);
+	if (freeSlot == -1)
+	    grow(2*heap.length);
+
+	int slot = freeSlot;
+	freeSlot = nextFree[slot];
+
+	times[slot] = time;
+	ids[slot] = numPendingInterruptsCreated++;
+	types[slot] = type;
+	handlers[slot] = handler;
+
+	heap[numPending] = slot;
+	heapIndex[slot] = numPending;
+	siftUp(numPending++);
+
+	return ((long) generations[slot] << 32) | slot;
+    }
+
+    private boolean cancel(long handle) {
+	int slot = (int) handle;
+	int generation = (int) (handle >>> 32);
+
+	// a stale handle refers to a slot that has since been freed
+	if (slot < 0 || slot >= heap.length ||
+	    generations[slot] != generation || heapIndex[slot] == -1)
+	    return false;
+
+	Lib.debug(dbgInt,
+		  "Cancelling the " + types[slot] +
+		  " interrupt handler at time = " + times[slot]);
+
+	remove(heapIndex[slot]);
+	return true;
+    }
+
+    /**
+     * Remove the pending interrupt at the specified position in the heap and
+     * free its slot.
+     *
+     * @param	index	the heap position of the interrupt to remove.
+     */
+    private void remove(int index) {
+	int slot = heap[index];
+
+	numPending--;
+	if (index != numPending) {
+	    int moved = heap[numPending];
+	    heap[index] = moved;
+	    heapIndex[moved] = index;
+
+	    siftDown(index);
+	    if (heapIndex[moved] == index)
+		siftUp(index);
+	}
+
+	heapIndex[slot] = -1;
+	types[slot] = null;
+	handlers[slot] = null;
+	generations[slot]++;
+	nextFree[slot] = freeSlot;
+	freeSlot = slot;
+    }
+
+    /** Return <tt>true</tt> if slot <i>a</i> occurs before slot <i>b</i>. */
+    private boolean before(int a, int b) {
+	return times[a] < times[b] || (times[a] == times[b] && ids[a] < ids[b]);
+    }
+
+    private void siftUp(int index) {
+	int slot = heap[index];
+
+	while (index > 0) {
+	    int parent = (index-1)/2;
+	    if (!before(slot, heap[parent]))
+		break;
+
+	    heap[index] = heap[parent];
+	    heapIndex[heap[index]] = index;
+	    index = parent;
+	}
+
+	heap[index] = slot;
+	heapIndex[slot] = index;
+    }
+
+    private void siftDown(int index) {
+	int slot = heap[index];
+
+	while (true) {
+	    int child = 2*index+1;
+	    if (child >= numPending)
+		break;
+	    if (child+1 < numPending && before(heap[child+1], heap[child]))
+		child++;
+	    if (!before(heap[child], slot))
+		break;
+
+	    heap[index] = heap[child];
+	    heapIndex[heap[index]] = index;
+	    index = child;
+	}
+
+	heap[index] = slot;
+	heapIndex[slot] = index;
+    }
+
+    /**
+     * Enlarge the slot arrays to the specified size, and add the new slots to
+     * the free list.
+     */
+    private void grow(int size) {
+	int oldSize = heap.length;
+
+	times = Arrays.copyOf(times, size);
+	ids = Arrays.copyOf(ids, size);
+	types = Arrays.copyOf(types, size);
+	handlers = Arrays.copyOf(handlers, size);
+	generations = Arrays.copyOf(generations, size);
+	heapIndex = Arrays.copyOf(heapIndex, size);
+	nextFree = Arrays.copyOf(nextFree, size);
+	heap = Arrays.copyOf(heap, size);
+
+	for (int i=size-1; i>=oldSize; i--) {
+	    heapIndex[i] = -1;
+	    nextFree[i] = freeSlot;
+	    freeSlot = i;
+	}
     }
 
     private void tick(boolean inKernelMode) {
@@ -153,6 +311,37 @@ public final class Interrupt {
 	enabled = true;
     }
 
+    /**
+     * Return the number of user ticks that can be counted by
+     * <tt>tickUser()</tt> before any pending interrupt becomes due. Returns 0
+     * when interrupt debugging is on, so that every tick is still reported.
+     */
+    private long userTicksUntilDue() {
+	if (Lib.test(dbgInt))
+	    return 0;
+
+	if (numPending == 0)
+	    return Long.MAX_VALUE;
+
+	long until = times[heap[0]] - privilege.stats.totalTicks;
+	if (until <= 0)
+	    return 0;
+
+	// the tick that reaches the interrupt's time must be a real one
+	return (until-1) / Stats.UserTick;
+    }
+
+    /**
+     * Count several user ticks at once, without checking for due interrupts.
+     * The caller must already know that no interrupt becomes due.
+     */
+    private void tickUser(long ticks) {
+	Stats stats = privilege.stats;
+
+	stats.userTicks += ticks * Stats.UserTick;
+	stats.totalTicks += ticks * Stats.UserTick;
+    }
+
     private void checkIfDue() {
 	long time = privilege.stats.totalTicks;
 
@@ -161,27 +350,28 @@ public final class Interrupt {
 	if (Lib.test(dbgInt))
 	    print();
 
-	if (pending.isEmpty())
+	if (numPending == 0)
 	    return;
 
-	if (((PendingInterrupt) pending.first()).time > time)
+	if (times[heap[0]] > time)
 	    return;
 
 	Lib.debug(dbgInt, "Invoking interrupt handlers at time = " + time);
 	
-	while (!pending.isEmpty() &&
-	       ((PendingInterrupt) pending.first()).time <= time) {
-	    PendingInterrupt next = (PendingInterrupt) pending.first();
-	    pending.remove(next);
+	while (numPending > 0 && times[heap[0]] <= time) {
+	    int next = heap[0];
+	    String type = types[next];
+	    Runnable handler = handlers[next];
 
-	    Lib.assertTrue(next.time <= time);
+	    Lib.assertTrue(times[next] <= time);
+	    remove(0);
 
 	    if (privilege.processor != null)
 		privilege.processor.flushPipe();
 
-	    Lib.debug(dbgInt, "  " + next.type);
+	    Lib.debug(dbgInt, "  " + type);
 			
-	    next.handler.run();
+	    handler.run();
 	}
 
 	Lib.debug(dbgInt, "  (end of list)");
@@ -192,62 +382,68 @@ public final class Interrupt {
 			   + ", interrupts " + (enabled ? "on" : "off"));
 	System.out.println("Pending interrupts:");
 
-	for (Iterator i=pending.iterator(); i.hasNext(); ) {
-	    PendingInterrupt toOccur = (PendingInterrupt) i.next();
-	    System.out.println("  " + toOccur.type +
-			       ", scheduled at " + toOccur.time);
-	}
-
-	System.out.println("  (end of list)");
-    }
-
-    private class PendingInterrupt implements Comparable {
-	PendingInterrupt(long time, String type, Runnable handler) {
-	    this.time = time;
-	    this.type = type;
-	    this.handler = handler;
-	    this.id = numPendingInterruptsCreated++;
+	// print in the order the interrupts will occur
+	int[] order = Arrays.copyOf(heap, numPending);
+	for (int i=1; i<order.length; i++) {
+	    int slot = order[i], j;
+	    for (j=i; j>0 && before(slot, order[j-1]); j--)
+		order[j] = order[j-1];
+	    order[j] = slot;
 	}
 
-	public int compareTo(Object o) {
-	    PendingInterrupt toOccur = (PendingInterrupt) o;
-
-	    // can't return 0 for unequal objects, so check all fields
-	    if (time < toOccur.time)
-		return -1;
-	    else if (time > toOccur.time)
-		return 1;
-	    else if (id < toOccur.id)
-		return -1;
-	    else if (id > toOccur.id)
-		return 1;
-	    else
-		return 0;
+	for (int i=0; i<order.length; i++) {
+	    System.out.println("  " + types[order[i]] +
+			       ", scheduled at " + times[order[i]]);
 	}
 
-	long time;
-	String type;
-	Runnable handler;
-
-	private long id;
+	System.out.println("  (end of list)");
     }
-    
+
     private long numPendingInterruptsCreated = 0;
 
     private Privilege privilege;
 
     private boolean enabled;
-    private TreeSet<PendingInterrupt> pending;
+
+    /*
+     * Pending interrupts are kept in preallocated slots, so scheduling one
+     * allocates nothing. A slot's fields live in parallel arrays, and the
+     * occupied slots form a binary heap ordered by (time, id), so the next
+     * interrupt is always heap[0]. Free slots are chained through nextFree.
+     * A slot's generation changes whenever it is freed, which lets cancel()
+     * recognize handles to interrupts that have already occurred.
+     */
+    private long[] times, ids;
+    private String[] types;
+    private Runnable[] handlers;
+    private int[] generations, heapIndex, nextFree;
+    private int[] heap;
+    private int numPending = 0;
+    private int freeSlot = -1;
+
+    private static final int initialSlots = 16;
 
     private static final char dbgInt = 'i';
 
     private class InterruptPrivilege implements Privilege.InterruptPrivilege {
-	public void schedule(long when, String type, Runnable handler) {
-	    Interrupt.this.schedule(when, type, handler);
+	public long schedule(long when, String type, Runnable handler) {
+	    return Interrupt.this.schedule(when, type, handler);
+	}
+
+	public boolean cancel(long handle) {
+	    return Interrupt.this.cancel(handle);
 	}
 
 	public void tick(boolean inKernelMode) {
 	    Interrupt.this.tick(inKernelMode);
 	}
+
+	public long userTicksUntilDue() {
+	    return Interrupt.this.userTicksUntilDue();
+	}
+
+	public void tickUser(long ticks) {
+	    Interrupt.this.tickUser(ticks);
+	}
     }
 }
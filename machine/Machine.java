@@ -6,6 +6,7 @@ import nachos.security.*;
 import nachos.ag.*;
 
 import java.io.File;
+import java.util.ArrayList;
 
 /**
  * The master class of the simulated machine. Processes command line arguments,
@@ -92,14 +93,31 @@ public final class Machine {
     }
 
     /**
-     * Print stats, and terminate Nachos.
+     * Print stats, run the halt notification handlers, and terminate Nachos.
      */
     public static void halt() {
 	System.out.print("Machine halting!\n\n");
 	stats.print();
+
+	for (Runnable handler : haltHandlers)
+	    handler.run();
+
 	terminate();
     }
 
+    /**
+     * Add a handler to be run when Nachos halts, after the statistics have
+     * been printed. The kernel can use this to print statistics of its own.
+     * Handlers are run in the order they were added.
+     *
+     * @param	handler	the handler to run.
+     */
+    public static void addHaltNotificationHandler(Runnable handler) {
+	Lib.assertTrue(handler != null);
+
+	haltHandlers.add(handler);
+    }
+
     /**
      * Return an array containing all command line arguments.
      *
@@ -409,6 +427,7 @@ public final class Machine {
     private static String[] args = null;
 
     private static Stats stats = new Stats();
+    private static ArrayList<Runnable> haltHandlers = new ArrayList<Runnable>();
 
     private static int numPhysPages = -1;
     private static long randomSeed = 0;
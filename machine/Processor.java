@@ -4,6 +4,9 @@ package nachos.machine;
 
 import nachos.security.*;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * The <tt>Processor</tt> class simulates a MIPS processor that supports a
  * subset of the R3000 instruction set. Specifically, the processor lacks all
@@ -45,9 +48,29 @@ public final class Processor {
 	for (int i=0; i<numUserRegisters; i++)
 	    registers[i] = 0;
 
-	mainMemory = new byte[pageSize * numPhysPages];
+	// physical addresses are ints, which limits memory to 2GB
+	Lib.assertTrue(numPhysPages <= Integer.MAX_VALUE / pageSize);
+
+	if (Config.getBoolean("Processor.directMemory", false))
+	    mainMemory = ByteBuffer.allocateDirect(pageSize * numPhysPages);
+	else
+	    mainMemory = ByteBuffer.wrap(new byte[pageSize * numPhysPages]);
+	mainMemory.order(ByteOrder.LITTLE_ENDIAN);
+	decodedPages = new DecodedInstruction[numPhysPages][];
+	translatedPages = new boolean[numPhysPages];
+
+	translationThreshold =
+	    Config.getInteger("Processor.translationThreshold", 32);
 
 	if (usingTLB) {
+	    tlbSize = Config.getInteger("Processor.tlbSize", 2);
+	    tlbWays = Config.getInteger("Processor.tlbWays", tlbSize);
+
+	    if (tlbSize < 1 || tlbWays < 1 || tlbSize % tlbWays != 0)
+		Lib.assertNotReached("Processor.tlbWays must divide " +
+				     "Processor.tlbSize");
+	    tlbSets = tlbSize / tlbWays;
+
 	    translations = new TranslationEntry[tlbSize];
 	    for (int i=0; i<tlbSize; i++)
 		translations[i] = new TranslationEntry();
@@ -91,17 +114,25 @@ public final class Processor {
 
 	Machine.autoGrader().runProcessor(privilege);
 
+	// translated blocks skip the per-instruction debugging output
+	translating = translationThreshold > 0 && !Lib.test(dbgProcessor) &&
+	    !Lib.test(dbgDisassemble) && !Lib.test(dbgFullDisassemble);
+
 	Instruction inst = new Instruction();
 	
 	while (true) {
 	    try {
-		inst.run();
+		// a translated block ticks for itself
+		if (inst.run())
+		    continue;
 	    }
 	    catch (MipsException e) {
+		// the kernel must see the time up to the faulting instruction
+		flushTicks();
 		e.handle();
 	    }
 		//System.out.println("5 29 34 35: "+registers[5]+" "+registers[29]+" "+registers[34]+" "+registers[35]+" ");
-	    privilege.interrupt.tick(false);
+	    userTick();
 	}
     }
 
@@ -188,6 +219,60 @@ public final class Processor {
 	return tlbSize;
     }
 
+    /**
+     * Return the associativity of this processor's TLB. The TLB is divided
+     * into sets of this many consecutive entries, and a virtual page can only
+     * be mapped by an entry in its own set (see <tt>getTLBSet()</tt>). If the
+     * associativity equals the TLB size, the TLB is fully associative.
+     *
+     * @return	the number of entries in each TLB set.
+     */
+    public int getTLBWays() {
+	Lib.assertTrue(usingTLB);
+
+	return tlbWays;
+    }
+
+    /**
+     * Return the index of the first TLB entry in the set that may map the
+     * specified virtual page. A translation for <i>vpn</i> must be written
+     * to one of the <tt>getTLBWays()</tt> entries starting at this index.
+     *
+     * @param	vpn	the virtual page number.
+     * @return	the index of the first entry in <i>vpn</i>'s set.
+     */
+    public int getTLBSet(int vpn) {
+	Lib.assertTrue(usingTLB);
+
+	return (int) (((long) vpn & 0xFFFFFFFFL) % tlbSets) * tlbWays;
+    }
+
+    /**
+     * Set the address space identifier of the running address space. Only TLB
+     * entries whose <tt>asid</tt> matches are used for translation, so TLB
+     * entries belonging to other address spaces do not have to be
+     * invalidated on a context switch.
+     *
+     * @param	asid	the new address space identifier.
+     */
+    public void setASID(int asid) {
+	Lib.assertTrue(usingTLB);
+
+	this.asid = asid;
+    }
+
+    /**
+     * Return the address space identifier set by the last call to
+     * <tt>setASID()</tt>, or 0 if it was never called.
+     *
+     * @return	the current address space identifier.
+     */
+    public int getASID() {
+	Lib.assertTrue(usingTLB);
+
+	return asid;
+    }
+
     /**
      * Returns the specified TLB entry.
      *
@@ -206,8 +291,8 @@ public final class Processor {
      * Fill the specified TLB entry.
      *
      * <p>
-     * The TLB is fully associative, so the location of an entry within the TLB
-     * does not affect anything.
+     * Within a set, the location of an entry does not affect anything. A
+     * valid entry must be written to the set of its virtual page.
      *
      * @param	number	the index into the TLB.
      * @param	entry	the new contents of the TLB entry.
@@ -216,6 +301,11 @@ public final class Processor {
 	Lib.assertTrue(usingTLB);
 	Lib.assertTrue(number >= 0 && number < tlbSize);
 
+	if (entry.valid) {
+	    int set = getTLBSet(entry.vpn);
+	    Lib.assertTrue(number >= set && number < set+tlbWays);
+	}
+
 	translations[number] = new TranslationEntry(entry);
     }
 
@@ -233,10 +323,80 @@ public final class Processor {
      * Return a reference to the physical memory array. The size of this array
      * is <tt>pageSize * getNumPhysPages()</tt>.
      *
+     * <p>
+     * Code that modifies a physical page through this array must call
+     * <tt>invalidateDecodedPage()</tt> on that page before the processor next
+     * executes instructions from it.
+     *
+     * <p>
+     * There is no such array if <tt>Processor.directMemory</tt> is set, in
+     * which case <tt>readMemory()</tt> and <tt>writeMemory()</tt> must be used
+     * instead.
+     *
      * @return	the main memory array.
      */
     public byte[] getMemory() {
-	return mainMemory;
+	Lib.assertTrue(mainMemory.hasArray(),
+		       "physical memory is not backed by an array");
+	
+	return mainMemory.array();
+    }
+
+    /**
+     * Copy bytes from physical memory into the specified array.
+     *
+     * @param	paddr	the first physical address to read.
+     * @param	data	the array where the data will be stored.
+     * @param	offset	the first byte to write in the array.
+     * @param	length	the number of bytes to copy.
+     */
+    public void readMemory(int paddr, byte[] data, int offset, int length) {
+	Lib.assertTrue(paddr >= 0 && length >= 0 &&
+		       paddr+length <= mainMemory.capacity());
+
+	ByteBuffer source = mainMemory.duplicate();
+	source.position(paddr);
+	source.get(data, offset, length);
+    }
+
+    /**
+     * Copy bytes from the specified array into physical memory. Unlike writes
+     * made through <tt>getMemory()</tt>, this discards any instructions
+     * decoded from the pages written.
+     *
+     * @param	paddr	the first physical address to write.
+     * @param	data	the array containing the data to copy.
+     * @param	offset	the first byte to copy from the array.
+     * @param	length	the number of bytes to copy.
+     */
+    public void writeMemory(int paddr, byte[] data, int offset, int length) {
+	Lib.assertTrue(paddr >= 0 && length >= 0 &&
+		       paddr+length <= mainMemory.capacity());
+
+	ByteBuffer target = mainMemory.duplicate();
+	target.position(paddr);
+	target.put(data, offset, length);
+
+	if (length > 0) {
+	    for (int ppn=paddr/pageSize; ppn<=(paddr+length-1)/pageSize; ppn++)
+		invalidateDecodedPage(ppn);
+	}
+    }
+
+    /**
+     * Discard any instructions this processor has decoded from the specified
+     * physical page. The processor caches decoded instructions by physical
+     * address; stores executed by user programs invalidate the cache
+     * automatically, but writes made directly to the array returned by
+     * <tt>getMemory()</tt> do not.
+     *
+     * @param	ppn	the physical page that was modified.
+     */
+    public void invalidateDecodedPage(int ppn) {
+	Lib.assertTrue(ppn >= 0 && ppn < numPhysPages);
+
+	decodedPages[ppn] = null;
+	translatedPages[ppn] = false;
     }
 
     /**
@@ -324,11 +484,14 @@ public final class Processor {
 
 	    entry = translations[vpn];
 	}
-	// else, look through all TLB entries for matching vpn
+	// else, look through the entries of vpn's TLB set for a match
 	else {
-	    for (int i=0; i<tlbSize; i++) {
-		if (translations[i].valid && translations[i].vpn == vpn) {
-		    entry = translations[i];
+	    int set = getTLBSet(vpn);
+	    for (int i=set; i<set+tlbWays; i++) {
+		TranslationEntry candidate = translations[i];
+		if (candidate.valid && candidate.vpn == vpn &&
+		    candidate.asid == asid) {
+		    entry = candidate;
 		    break;
 		}
 	    }
@@ -380,8 +543,21 @@ public final class Processor {
 
 	Lib.assertTrue(size==1 || size==2 || size==4);
 	
-	int value = Lib.bytesToInt(mainMemory, translate(vaddr, size, false),
-				   size);
+	int paddr = translate(vaddr, size, false);
+	int value;
+
+	// sign-extended, like Lib.bytesToInt()
+	switch (size) {
+	case 1:
+	    value = mainMemory.get(paddr);
+	    break;
+	case 2:
+	    value = mainMemory.getShort(paddr);
+	    break;
+	default:
+	    value = mainMemory.getInt(paddr);
+	    break;
+	}
 
 	if (Lib.test(dbgProcessor))
 	    System.out.println("\t\tvalue read=0x" +
@@ -407,9 +583,159 @@ public final class Processor {
 			       + Lib.toHexString(value, size*2));
 
 	Lib.assertTrue(size==1 || size==2 || size==4);
+
+	int paddr = translate(vaddr, size, true);
 	
-	Lib.bytesFromInt(mainMemory, translate(vaddr, size, true), size,
-			 value);
+	switch (size) {
+	case 1:
+	    mainMemory.put(paddr, (byte) value);
+	    break;
+	case 2:
+	    mainMemory.putShort(paddr, (short) value);
+	    break;
+	default:
+	    mainMemory.putInt(paddr, value);
+	    break;
+	}
+
+	// the store may have overwritten an instruction we already decoded;
+	// a translated block may span the word, so drop the whole page then
+	int ppn = paddr/pageSize;
+	DecodedInstruction[] page = decodedPages[ppn];
+	if (page != null) {
+	    if (translatedPages[ppn]) {
+		decodedPages[ppn] = null;
+		translatedPages[ppn] = false;
+	    }
+	    else {
+		page[(paddr%pageSize)/4] = null;
+	    }
+	}
+    }
+
+    /**
+     * Return the decoded form of the instruction at the specified physical
+     * address, decoding it and caching the result if necessary.
+     *
+     * @param	paddr	the word-aligned physical address of the instruction.
+     * @return	the decoded instruction.
+     */
+    private DecodedInstruction decodeAt(int paddr) {
+	int ppn = paddr/pageSize;
+	int index = (paddr%pageSize)/4;
+
+	DecodedInstruction[] page = decodedPages[ppn];
+	if (page == null) {
+	    page = new DecodedInstruction[pageSize/4];
+	    decodedPages[ppn] = page;
+	}
+
+	DecodedInstruction decoded = page[index];
+	if (decoded == null) {
+	    decoded = new DecodedInstruction(mainMemory.getInt(paddr));
+	    page[index] = decoded;
+	}
+
+	return decoded;
+    }
+
+    /**
+     * Count one user tick for the instruction just executed. While no
+     * interrupt can become due, ticks are only batched up; otherwise the
+     * batch is counted and the interrupt controller is ticked normally, which
+     * may invoke interrupt handlers.
+     */
+    private void userTick() {
+	if (ticksBeforeDue > 0) {
+	    ticksBeforeDue--;
+	    batchedTicks++;
+	    return;
+	}
+
+	flushTicks();
+	privilege.interrupt.tick(false);
+
+	// handlers may have scheduled new interrupts
+	ticksBeforeDue = privilege.interrupt.userTicksUntilDue();
+    }
+
+    /**
+     * Add any batched user ticks to the simulated time, and stop batching
+     * until the interrupt controller is next ticked. Must be called before
+     * the kernel can run.
+     */
+    private void flushTicks() {
+	if (batchedTicks > 0) {
+	    privilege.interrupt.tickUser(batchedTicks);
+	    batchedTicks = 0;
+	}
+
+	ticksBeforeDue = 0;
+    }
+
+    /**
+     * Translate the longest run of consecutive instructions, starting at the
+     * specified physical address and ending at the end of its page, that
+     * <tt>TranslatedOp</tt> can execute without the interpreter.
+     *
+     * @param	paddr	the physical address of the first instruction.
+     * @return	the translated block, or <tt>null</tt> if the run is too short
+     *		to be worth translating.
+     */
+    private TranslatedOp[] translateBlock(int paddr) {
+	int ppn = paddr/pageSize;
+	int end = (ppn+1)*pageSize;
+
+	TranslatedOp[] ops = new TranslatedOp[(end-paddr)/4];
+	int length = 0;
+
+	for (; paddr < end; paddr += 4) {
+	    TranslatedOp op = TranslatedOp.translate(decodeAt(paddr));
+	    if (op == null)
+		break;
+
+	    ops[length++] = op;
+	}
+
+	if (length < minBlockLength)
+	    return null;
+
+	TranslatedOp[] block = new TranslatedOp[length];
+	System.arraycopy(ops, 0, block, 0, length);
+
+	translatedPages[ppn] = true;
+	return block;
+    }
+
+    /**
+     * Execute a translated block, starting at the current PC. Each
+     * instruction is followed by a user tick, exactly as if the interpreter
+     * had run it, and the block is abandoned as soon as an interrupt handler
+     * may have changed the processor's state or control leaves the
+     * straight-line path.
+     *
+     * @param	block	the block to execute.
+     */
+    private void runBlock(TranslatedOp[] block) {
+	int epoch = translationEpoch;
+	int pc = registers[regPC];
+
+	for (int i=0; ; ) {
+	    TranslatedOp op = block[i];
+	    
+	    int result = op.compute(registers);
+	    finishLoad();
+	    if (op.dstReg != 0)
+		registers[op.dstReg] = result;
+	    advancePC(registers[regNextPC]+4);
+
+	    userTick();
+
+	    pc += 4;
+	    if (++i == block.length || translationEpoch != epoch ||
+		registers[regPC] != pc)
+		return;
+	}
     }
 
     /**
@@ -543,6 +869,12 @@ public final class Processor {
     private boolean usingTLB;
     /** Number of TLB entries. */
     private int tlbSize = 2;
+    /** Number of entries in each TLB set. */
+    private int tlbWays = 2;
+    /** Number of TLB sets. */
+    private int tlbSets = 1;
+    /** Address space identifier that TLB entries must match. */
+    private int asid = 0;
     /**
      * Either an associative or direct-mapped set of translation entries,
      * depending on whether there is a TLB.
@@ -555,8 +887,39 @@ public final class Processor {
     public static final int maxPages = (int) (0x100000000L / pageSize);
     /** Number of physical pages in memory. */
     private int numPhysPages;
-    /** Main memory for user programs. */
-    private byte[] mainMemory;
+    /**
+     * Main memory for user programs, in little-endian byte order. Wraps a
+     * <tt>byte[]</tt> unless <tt>Processor.directMemory</tt> is set, in
+     * which case it is allocated outside the Java heap.
+     */
+    private ByteBuffer mainMemory;
+    /**
+     * Decoded instructions, indexed by physical page and then by word within
+     * the page. A page's array is allocated the first time an instruction is
+     * fetched from it, and discarded when the page is overwritten in bulk.
+     */
+    private DecodedInstruction[][] decodedPages;
+    /** Whether each physical page holds the start of a translated block. */
+    private boolean[] translatedPages;
+    /**
+     * Number of times an instruction must be interpreted before the block
+     * starting at it is translated, or 0 to disable translation.
+     */
+    private int translationThreshold;
+    /** <tt>true</tt> if translated blocks may be executed. */
+    private boolean translating = false;
+    /**
+     * Incremented whenever the pipe is flushed for an interrupt handler, so a
+     * translated block can tell that the kernel may have run.
+     */
+    private int translationEpoch = 0;
+    /** User ticks that can still be batched before an interrupt is due. */
+    private long ticksBeforeDue = 0;
+    /** User ticks executed but not yet added to the simulated time. */
+    private long batchedTicks = 0;
+
+    /** The shortest run of instructions worth translating. */
+    private static final int minBlockLength = 2;
 
     /** The kernel exception handler, called on every user exception. */
     private Runnable exceptionHandler = null;
@@ -568,6 +931,7 @@ public final class Processor {
     private class ProcessorPrivilege implements Privilege.ProcessorPrivilege {
 	public void flushPipe() {
 	    finishLoad();
+	    translationEpoch++;
 	}
     }
 
@@ -610,12 +974,26 @@ public final class Processor {
     }	
 
     private class Instruction {
-	public void run() throws MipsException {
+	/**
+	 * Execute the instruction at the current PC, or the translated block
+	 * starting there.
+	 *
+	 * @return	<tt>true</tt> if a translated block ran, in which case the
+	 *		user ticks have already been counted.
+	 */
+	public boolean run() throws MipsException {
 	    // hopefully this looks familiar to 152 students?
 	    fetch();
+
+	    if (translating && decoded.block != null) {
+		runBlock(decoded.block);
+		return true;
+	    }
+
 	    decode();
 	    execute();
 	    writeBack();
+	    return false;
 	}	
 
 	private boolean test(int flag) {
@@ -628,31 +1006,31 @@ public final class Processor {
 		System.out.print("PC=0x" + Lib.toHexString(registers[regPC])
 				 + "\t");
 
-	    value = readMem(registers[regPC], 4);
+	    // readMem() prints the word read, so only bypass it when quiet
+	    if (Lib.test(dbgProcessor))
+		decoded = new DecodedInstruction(readMem(registers[regPC], 4));
+	    else {
+		int paddr = translate(registers[regPC], 4, false);
+		decoded = decodeAt(paddr);
+
+		if (translating && decoded.block == null &&
+		    ++decoded.hits == translationThreshold)
+		    decoded.block = translateBlock(paddr);
+	    }
 	}
 	
 	private void decode() {
-	    op = Lib.extract(value, 26, 6);
-	    rs = Lib.extract(value, 21, 5);
-	    rt = Lib.extract(value, 16, 5);
-	    rd = Lib.extract(value, 11, 5);
-	    sh = Lib.extract(value, 6, 5);
-	    func = Lib.extract(value, 0, 6);
-	    target = Lib.extract(value, 0, 26);
-	    imm = Lib.extend(value, 0, 16);
-
-	    Mips info;
-	    switch (op) {
-	    case 0:
-		info = Mips.specialtable[func];
-		break;
-	    case 1:
-		info = Mips.regimmtable[rt];
-		break;
-	    default:
-		info = Mips.optable[op];
-		break;
-	    }
+	    value = decoded.value;
+	    op = decoded.op;
+	    rs = decoded.rs;
+	    rt = decoded.rt;
+	    rd = decoded.rd;
+	    sh = decoded.sh;
+	    func = decoded.func;
+	    target = decoded.target;
+	    imm = decoded.imm;
+
+	    Mips info = decoded.info;
 
 	    operation = info.operation;
 	    name = info.name;
@@ -662,28 +1040,12 @@ public final class Processor {
 	    mask = 0xFFFFFFFF;	
 	    branch = true;
 	
-	    // get memory access size
-	    if (test(Mips.SIZEB))
-		size = 1;
-	    else if (test(Mips.SIZEH))
-		size = 2;
-	    else if (test(Mips.SIZEW))
-		size = 4;
-	    else
-		size = 0;
+	    size = decoded.size;
 
 	    // get nextPC
 	    nextPC = registers[regNextPC]+4;
 
-	    // get dstReg
-	    if (test(Mips.DSTRA))
-		dstReg = regRA;
-	    else if (format == Mips.IFMT)
-		dstReg = rt;
-	    else if (format == Mips.RFMT)
-		dstReg = rd;
-	    else
-		dstReg = -1;
+	    dstReg = decoded.dstReg;
 
 	    // get jtarget
 	    if (format == Mips.RFMT)
@@ -1054,6 +1416,7 @@ public final class Processor {
 	}
     
 	// state used to execute a single instruction
+	DecodedInstruction decoded;
 	int value, op, rs, rt, rd, sh, func, target, imm;
 	int operation, format, flags;
 	String name;
@@ -1065,6 +1428,230 @@ public final class Processor {
 	boolean branch;
     }
 
+    /**
+     * The fields of an instruction that depend only on the instruction word,
+     * and not on the state of the processor when it executes.
+     */
+    private static class DecodedInstruction {
+	DecodedInstruction(int value) {
+	    this.value = value;
+
+	    op = Lib.extract(value, 26, 6);
+	    rs = Lib.extract(value, 21, 5);
+	    rt = Lib.extract(value, 16, 5);
+	    rd = Lib.extract(value, 11, 5);
+	    sh = Lib.extract(value, 6, 5);
+	    func = Lib.extract(value, 0, 6);
+	    target = Lib.extract(value, 0, 26);
+	    imm = Lib.extend(value, 0, 16);
+
+	    switch (op) {
+	    case 0:
+		info = Mips.specialtable[func];
+		break;
+	    case 1:
+		info = Mips.regimmtable[rt];
+		break;
+	    default:
+		info = Mips.optable[op];
+		break;
+	    }
+
+	    // get memory access size
+	    if (Lib.test(Mips.SIZEB, info.flags))
+		size = 1;
+	    else if (Lib.test(Mips.SIZEH, info.flags))
+		size = 2;
+	    else if (Lib.test(Mips.SIZEW, info.flags))
+		size = 4;
+	    else
+		size = 0;
+
+	    // get dstReg
+	    if (Lib.test(Mips.DSTRA, info.flags))
+		dstReg = regRA;
+	    else if (info.format == Mips.IFMT)
+		dstReg = rt;
+	    else if (info.format == Mips.RFMT)
+		dstReg = rd;
+	    else
+		dstReg = -1;
+	}
+
+	final int value, op, rs, rt, rd, sh, func, target, imm;
+	final Mips info;
+	final int size, dstReg;
+
+	/** Number of times the interpreter has fetched this instruction. */
+	int hits = 0;
+	/** The translated block starting at this instruction, if any. */
+	TranslatedOp[] block = null;
+    }
+
+    /**
+     * A single instruction translated into a Java object that computes its
+     * result directly from the register file. Only instructions that cannot
+     * raise an exception, touch memory, branch, or start a delayed load are
+     * translated; everything else is left to the interpreter.
+     *
+     * <p>
+     * The result is written to <tt>dstReg</tt> after the pending delayed load
+     * completes, matching <tt>Instruction.writeBack()</tt>.
+     */
+    private static abstract class TranslatedOp {
+	TranslatedOp(int dstReg) {
+	    this.dstReg = dstReg;
+	}
+
+	/**
+	 * Compute the value this instruction writes to <tt>dstReg</tt>.
+	 *
+	 * @param	r	the register file.
+	 * @return	the result of the instruction.
+	 */
+	abstract int compute(int[] r);
+
+	final int dstReg;
+
+	/**
+	 * Translate a decoded instruction.
+	 *
+	 * @param	decoded	the instruction to translate.
+	 * @return	the translated instruction, or <tt>null</tt> if it must be
+	 *		interpreted.
+	 */
+	static TranslatedOp translate(DecodedInstruction decoded) {
+	    int flags = decoded.info.flags;
+	    
+	    if (Lib.test(Mips.OVERFLOW, flags))
+		return null;
+
+	    final int rs = decoded.rs, rt = decoded.rt, sh = decoded.sh;
+	    final int imm = Lib.test(Mips.UNSIGNED, flags) ?
+		decoded.imm & 0xFFFF : decoded.imm;
+	    final boolean immediate = Lib.test(Mips.SRC2IMM, flags);
+	    final boolean unsigned = Lib.test(Mips.UNSIGNED, flags);
+	    final boolean shiftImmediate = Lib.test(Mips.SRC1SH, flags);
+	    int dstReg = decoded.dstReg;
+
+	    switch (decoded.info.operation) {
+	    case Mips.ADD:
+		if (immediate)
+		    return new TranslatedOp(dstReg) {
+			    int compute(int[] r) { return r[rs] + imm; }
+			};
+		return new TranslatedOp(dstReg) {
+			int compute(int[] r) { return r[rs] + r[rt]; }
+		    };
+	    case Mips.SUB:
+		return new TranslatedOp(dstReg) {
+			int compute(int[] r) { return r[rs] - r[rt]; }
+		    };
+
+	    case Mips.SLL:
+		if (shiftImmediate)
+		    return new TranslatedOp(dstReg) {
+			    int compute(int[] r) { return r[rt] << sh; }
+			};
+		return new TranslatedOp(dstReg) {
+			int compute(int[] r) { return r[rt] << (r[rs]&0x1F); }
+		    };
+	    case Mips.SRA:
+		if (shiftImmediate)
+		    return new TranslatedOp(dstReg) {
+			    int compute(int[] r) { return r[rt] >> sh; }
+			};
+		return new TranslatedOp(dstReg) {
+			int compute(int[] r) { return r[rt] >> (r[rs]&0x1F); }
+		    };
+	    // the interpreter shifts the sign-extended 64-bit operand, so do
+	    // the same to get the same low 32 bits
+	    case Mips.SRL:
+		if (shiftImmediate)
+		    return new TranslatedOp(dstReg) {
+			    int compute(int[] r) {
+				return (int) (((long) r[rt]) >>> sh);
+			    }
+			};
+		return new TranslatedOp(dstReg) {
+			int compute(int[] r) {
+			    return (int) (((long) r[rt]) >>> (r[rs]&0x1F));
+			}
+		    };
+
+	    case Mips.SLT:
+		// flipping the sign bits turns an unsigned compare into a
+		// signed one
+		final int bias = unsigned ? 0x80000000 : 0;
+		if (immediate)
+		    return new TranslatedOp(dstReg) {
+			    int compute(int[] r) {
+				return ((r[rs]^bias) < (imm^bias)) ? 1 : 0;
+			    }
+			};
+		return new TranslatedOp(dstReg) {
+			int compute(int[] r) {
+			    return ((r[rs]^bias) < (r[rt]^bias)) ? 1 : 0;
+			}
+		    };
+
+	    case Mips.AND:
+		if (immediate)
+		    return new TranslatedOp(dstReg) {
+			    int compute(int[] r) { return r[rs] & imm; }
+			};
+		return new TranslatedOp(dstReg) {
+			int compute(int[] r) { return r[rs] & r[rt]; }
+		    };
+	    case Mips.OR:
+		if (immediate)
+		    return new TranslatedOp(dstReg) {
+			    int compute(int[] r) { return r[rs] | imm; }
+			};
+		return new TranslatedOp(dstReg) {
+			int compute(int[] r) { return r[rs] | r[rt]; }
+		    };
+	    case Mips.NOR:
+		return new TranslatedOp(dstReg) {
+			int compute(int[] r) { return ~(r[rs] | r[rt]); }
+		    };
+	    case Mips.XOR:
+		if (immediate)
+		    return new TranslatedOp(dstReg) {
+			    int compute(int[] r) { return r[rs] ^ imm; }
+			};
+		return new TranslatedOp(dstReg) {
+			int compute(int[] r) { return r[rs] ^ r[rt]; }
+		    };
+	    case Mips.LUI:
+		final int upper = imm << 16;
+		return new TranslatedOp(dstReg) {
+			int compute(int[] r) { return upper; }
+		    };
+
+	    case Mips.MFLO:
+		return new TranslatedOp(dstReg) {
+			int compute(int[] r) { return r[regLo]; }
+		    };
+	    case Mips.MFHI:
+		return new TranslatedOp(dstReg) {
+			int compute(int[] r) { return r[regHi]; }
+		    };
+	    case Mips.MTLO:
+		return new TranslatedOp(regLo) {
+			int compute(int[] r) { return r[rs]; }
+		    };
+	    case Mips.MTHI:
+		return new TranslatedOp(regHi) {
+			int compute(int[] r) { return r[rs]; }
+		    };
+
+	    default:
+		return null;
+	    }
+	}
+    }
+
     private static class Mips {
 	Mips() {
 	}
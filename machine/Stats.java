@@ -29,6 +29,9 @@ public final class Stats {
 			   + ", TLB misses " + numTLBMisses);
 	System.out.println("Network I/O: received " + numPacketsReceived
 			   + ", sent " + numPacketsSent);
+	System.out.println("Scheduling: context switches " + numContextSwitches
+			   + ", preemptions " + numPreemptions
+			   + ", deadline misses " + numDeadlineMisses);
     }
 
     /**
@@ -61,6 +64,15 @@ public final class Stats {
     public int numPacketsSent = 0;
     /** The total number of packets Nachos has received from the network. */
     public int numPacketsReceived = 0;
+    /** The total number of context switches between threads. */
+    public int numContextSwitches = 0;
+    /**
+     * The total number of context switches made by the timer interrupt
+     * handler, each of which preempted the running thread.
+     */
+    public int numPreemptions = 0;
+    /** The total number of real-time jobs that missed their deadline. */
+    public int numDeadlineMisses = 0;
 
     /**
      * The amount to advance simulated time after each user instructions is
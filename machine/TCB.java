@@ -6,6 +6,7 @@ import nachos.security.*;
 import nachos.threads.KThread;
 
 import java.util.Vector;
+import java.util.concurrent.locks.LockSupport;
 import java.security.PrivilegedAction;
 
 /**
@@ -40,6 +41,51 @@ public final class TCB {
     public static void givePrivilege(Privilege privilege) {
 	TCB.privilege = privilege;
 	privilege.tcb = new TCBPrivilege();
+
+	maxThreads = Config.getInteger("TCB.maxThreads", 250);
+	stackSize = Config.getInteger("TCB.stackSize", 0);
+	poolSize = Config.getInteger("TCB.poolSize", 16);
+	Lib.assertTrue(maxThreads > 0 && stackSize >= 0 && poolSize >= 0);
+    }
+
+    /**
+     * Return the number of Java threads created to run TCBs, not counting the
+     * thread that started Nachos.
+     *
+     * @return	the number of Java threads created.
+     */
+    public static int getThreadsCreated() {
+	return threadsCreated;
+    }
+
+    /**
+     * Return the number of times <tt>start()</tt> reused the Java thread of a
+     * destroyed TCB instead of creating a new one.
+     *
+     * @return	the number of reused Java threads.
+     */
+    public static int getThreadsReused() {
+	return threadsReused;
+    }
+
+    /**
+     * Return the number of context switches between TCBs since Nachos
+     * started.
+     *
+     * @return	the number of context switches.
+     */
+    public static int getContextSwitches() {
+	return privilege.stats.numContextSwitches;
+    }
+
+    /**
+     * Return the maximum number of started, non-destroyed TCBs that can be in
+     * existence, set by <tt>TCB.maxThreads</tt> in <tt>nachos.conf</tt>.
+     *
+     * @return	the maximum number of TCBs.
+     */
+    public static int getMaxThreads() {
+	return maxThreads;
     }
     
     /**
@@ -87,26 +133,48 @@ public final class TCB {
 
 	if (!isFirstTCB) {
             //////System.out.println("TCB_start if isFirstTCB false hoy at 89 Thread.\n");
-	    /* If this is not the first TCB, we have to make a new Java thread
-	     * to run it. Creating Java threads is a privileged operation.
+	    /* If this is not the first TCB, we need a Java thread to run it.
+	     * We reuse the thread of a destroyed TCB if one is waiting in the
+	     * pool, and otherwise make a new one. Creating Java threads is a
+	     * privileged operation.
 	     */
-	    tcbTarget = new Runnable() {
-		    public void run() { threadroot(); }
-		};
+	    Worker worker = null;
+	    synchronized (pool) {
+		if (!pool.isEmpty())
+		    worker = pool.remove(pool.size()-1);
+	    }
 
-	    privilege.doPrivileged(new Runnable() {
-		    public void run() { javaThread = new Thread(tcbTarget); }
-		});
+	    if (worker != null) {
+		threadsReused++;
+	    }
+	    else {
+		final Worker newWorker = new Worker();
+		privilege.doPrivileged(new Runnable() {
+			public void run() {
+			    newWorker.thread = new Thread(null, newWorker, "TCB",
+							  stackSize);
+			}
+		    });
+		threadsCreated++;
+		worker = newWorker;
+	    }
+
+	    javaThread = worker.thread;
 
-	    /* The Java thread hasn't yet started, but we need to get it
+	    /* The Java thread isn't running us yet, but we need to get it
 	     * blocking in yield(). We do this by temporarily turning off the
-	     * current TCB, starting the new Java thread, and waiting for it
-	     * to wake us up from threadroot(). Once the new TCB wakes us up,
+	     * current TCB, handing this TCB to the Java thread, and waiting for
+	     * it to wake us up from threadroot(). Once the new TCB wakes us up,
 	     * it's safe to context switch to the new TCB.
 	     */
 	    currentTCB.running = false;
+
+	    worker.assigned = this;
+	    if (worker.thread.getState() == Thread.State.NEW)
+		worker.thread.start();
+	    else
+		LockSupport.unpark(worker.thread);
 	    
-	    this.javaThread.start();
 	    currentTCB.waitForInterrupt();
 	}
 	else {
@@ -148,6 +216,10 @@ public final class TCB {
 	if (this == currentTCB)
 	    return;
 
+	privilege.stats.numContextSwitches++;
+	if (Machine.timer() != null)
+	    Machine.timer().contextSwitched();
+
 	/* There are some synchronization concerns here. As soon as we wake up
 	 * the next thread, we cannot assume anything about static variables,
 	 * or about any TCB's state. Therefore, before waking up the next
@@ -292,34 +364,37 @@ public final class TCB {
     }
 
     /**
-     * Waits on the monitor bound to this TCB until its <tt>running</tt> flag
+     * Parks the Java thread bound to this TCB until its <tt>running</tt> flag
      * is set to <tt>true</tt>. <tt>waitForInterrupt()</tt> is used whenever a
      * TCB needs to go to wait for its turn to run. This includes the ping-pong
      * process of starting and destroying TCBs, as well as in context switching
      * from this TCB to another. We don't rely on <tt>currentTCB</tt>, since it
      * is updated by <tt>contextSwitch()</tt> before we get called.
+     *
+     * <p>
+     * <tt>park()</tt> may return spuriously, so the flag is always rechecked.
+     * If <tt>interrupt()</tt> runs before we park, its <tt>unpark()</tt> makes
+     * the next <tt>park()</tt> return immediately, so no wakeup is lost.
      */
-    private synchronized void waitForInterrupt() {
+    private void waitForInterrupt() {
         //////System.out.println("\n1st line of TCB_waitForInterrupt at 302 " + javaThread.getName());
         //////System.out.println(javaThread.getName() + " in TCB_waitForInterrupt before while.");
 	while (!running) {
-	    try { wait(); 
+	    LockSupport.park(this);
                 //////System.out.println("\nafter wait in TCB_waitForInterrupt at 306 " + javaThread.getName());
-            }
-	    catch (InterruptedException e) { }
 	}
     }
 
     /**
      * Wake up this TCB by setting its <tt>running</tt> flag to <tt>true</tt>
-     * and signalling the monitor bound to it. Used in the ping-pong process of
-     * starting and destroying TCBs, as well as in context switching to this
+     * and unparking the Java thread bound to it. Used in the ping-pong process
+     * of starting and destroying TCBs, as well as in context switching to this
      * TCB.
      */
-    private synchronized void interrupt() {
+    private void interrupt() {
         //////System.out.println("\nTCB_interrupt at 319 " + javaThread.getName());
 	running = true;
-	notify();
+	LockSupport.unpark(javaThread);
     }
 
     private void associateThread(KThread thread) {
@@ -345,9 +420,16 @@ public final class TCB {
 
     /**
      * The maximum number of started, non-destroyed TCB's that can be in
-     * existence.
+     * existence. Set from <tt>TCB.maxThreads</tt> (default 250).
+     */
+    private static int maxThreads = 250;
+
+    /**
+     * The stack size requested for each TCB's Java thread, from
+     * <tt>TCB.stackSize</tt>, or 0 to use the JVM's default. Smaller stacks
+     * allow many more threads.
      */
-    public static final int maxThreads = 250;
+    private static long stackSize = 0;
 
     /**
      * A reference to the currently running TCB. It is initialized to
@@ -404,8 +486,12 @@ public final class TCB {
      * when the associated Java thread ought to run ASAP. When starting or
      * destroying a TCB, this is temporarily true for a thread other than that
      * of the current TCB.
+     *
+     * <p>
+     * This flag is <i>volatile</i>: the write in <tt>interrupt()</tt> makes
+     * everything the waking thread did before it visible to the woken thread.
      */
-    private boolean running = false;
+    private volatile boolean running = false;
 
     /**
      * Set to <tt>true</tt> by <tt>destroy()</tt>, so that when
@@ -417,7 +503,45 @@ public final class TCB {
     private KThread nachosThread = null;
     private boolean associated = false;
     private Runnable target;
-    private Runnable tcbTarget;
+
+    /** Workers whose TCB has been destroyed, available for reuse. */
+    private static Vector<Worker> pool = new Vector<Worker>();
+    /** The maximum number of idle workers, from <tt>TCB.poolSize</tt>. */
+    private static int poolSize = 16;
+    private static int threadsCreated = 0;
+    private static int threadsReused = 0;
+
+    /**
+     * The body of a Java thread that runs TCBs. It runs one TCB until that TCB
+     * is destroyed, and then parks itself in the pool, waiting for
+     * <tt>start()</tt> to give it another. If the pool is full, the Java
+     * thread exits instead.
+     */
+    private static class Worker implements Runnable {
+	public void run() {
+	    while (true) {
+		TCB tcb;
+		while ((tcb = assigned) == null)
+		    LockSupport.park(this);
+		assigned = null;
+
+		// returns once the TCB has been destroyed
+		tcb.threadroot();
+
+		synchronized (pool) {
+		    if (pool.size() >= poolSize)
+			return;
+
+		    pool.add(this);
+		}
+	    }
+	}
+
+	/** The Java thread running this worker. */
+	Thread thread;
+	/** The TCB this worker should run next, set by <tt>start()</tt>. */
+	volatile TCB assigned = null;
+    }
 
     private static class TCBPrivilege implements Privilege.TCBPrivilege {
 	public void associateThread(KThread thread) {
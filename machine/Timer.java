@@ -65,8 +65,24 @@ public final class Timer {
 
 	lastTimerInterrupt = getTime();
 
-	if (handler != null)
+	if (handler != null) {
+	    inHandler = true;
 	    handler.run();
+	    inHandler = false;
+	}
+    }
+
+    /**
+     * Called by <tt>TCB</tt> on every context switch. A switch made from the
+     * timer interrupt handler preempts the current thread; only the first
+     * one counts, since the other threads that run before the handler
+     * returns are not interrupted.
+     */
+    void contextSwitched() {
+	if (inHandler) {
+	    privilege.stats.numPreemptions++;
+	    inHandler = false;
+	}
     }
 
     private void scheduleInterrupt() {
@@ -86,4 +102,5 @@ public final class Timer {
 
     private Privilege privilege;
     private Runnable handler = null;
+    private boolean inHandler = false;
 }
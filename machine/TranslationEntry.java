@@ -48,6 +48,7 @@ public final class TranslationEntry {
 	readOnly = entry.readOnly;
 	used = entry.used;
 	dirty = entry.dirty;
+	asid = entry.asid;
     }
 
     /** The virtual page number. */
@@ -78,4 +79,11 @@ public final class TranslationEntry {
      * user program.
      */
     public boolean dirty;
+
+    /**
+     * The address space identifier of the address space this translation
+     * belongs to. A TLB entry only matches while the processor's current
+     * ASID is equal to this. Ignored for page tables.
+     */
+    public int asid = 0;
 }
@@ -3,6 +3,8 @@ package nachos.network;
 import nachos.machine.*;
 import nachos.threads.*;
 
+import java.util.ArrayList;
+
 /**
  * A collection of message queues, one for each local port. A
  * <tt>PostOffice</tt> interacts directly with the network hardware. Because
@@ -13,11 +15,19 @@ import nachos.threads.*;
  * The post office uses a "postal worker" thread to wait for messages to arrive
  * from the network and to place them in the appropriate queues. This cannot
  * be done in the receive interrupt handler because each queue (implemented
- * with a <tt>SynchList</tt>) is protected by a lock.
+ * with a <tt>BoundedSynchList</tt>) is protected by a lock.
+ *
+ * <p>
+ * Each queue holds at most <tt>PostOffice.queueCapacity</tt> messages. When
+ * a message arrives for a full queue, the postal worker waits until the port
+ * is read and the queue has room. While it waits no more packets are taken
+ * from the network link, so a slow reader pushes back on the network rather
+ * than having its mail dropped.
  */
 public class PostOffice {
     /**
-     * Allocate a new post office, using an array of <tt>SynchList</tt>s.
+     * Allocate a new post office, using a list of
+     * <tt>BoundedSynchList</tt>s.
      * Register the interrupt handlers with the network hardware and start the
      * "postal worker" thread.
      */
@@ -26,9 +36,11 @@ public class PostOffice {
 	messageSent = new Semaphore(0);
 	sendLock = new Lock();
 
-	queues = new SynchList[MailMessage.portLimit];
-	for (int i=0; i<queues.length; i++)
-	    queues[i] = new SynchList();
+	int capacity = Config.getInteger("PostOffice.queueCapacity", 64);
+
+	queues = new ArrayList<BoundedSynchList<MailMessage>>();
+	for (int i=0; i<MailMessage.portLimit; i++)
+	    queues.add(new BoundedSynchList<MailMessage>(capacity));
 
 	Runnable receiveHandler = new Runnable() {
 	    public void run() { receiveInterrupt(); }
@@ -54,11 +66,11 @@ public class PostOffice {
      * @return	the message received.
      */
     public MailMessage receive(int port) {
-	Lib.assertTrue(port >= 0 && port < queues.length);
+	Lib.assertTrue(port >= 0 && port < queues.size());
 
 	Lib.debug(dbgNet, "waiting for mail on port " + port);
 
-	MailMessage mail = (MailMessage) queues[port].removeFirst();
+	MailMessage mail = queues.get(port).removeFirst();
 
 	if (Lib.test(dbgNet))
 	    System.out.println("got mail on port " + port + ": " + mail);
@@ -88,8 +100,9 @@ public class PostOffice {
 		System.out.println("delivering mail to port " + mail.dstPort
 				   + ": " + mail);
 
-	    // atomically add message to the mailbox and wake a waiting thread
-	    queues[mail.dstPort].add(mail);
+	    // atomically add message to the mailbox and wake a waiting thread,
+	    // waiting for room if the mailbox is full
+	    queues.get(mail.dstPort).add(mail);
 	}
     }
 
@@ -125,7 +138,7 @@ public class PostOffice {
 	messageSent.V();
     }
 
-    private SynchList[] queues;
+    private ArrayList<BoundedSynchList<MailMessage>> queues;
     private Semaphore messageReceived;	// V'd when a message can be dequeued
     private Semaphore messageSent;	// V'd when a message can be queued
     private Lock sendLock;
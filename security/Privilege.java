@@ -147,8 +147,19 @@ public abstract class Privilege {
 	 * @param	type	a name for the type of interrupt being
 	 *			scheduled.
 	 * @param	handler	the interrupt handler to call.
+	 * @return	a handle that can be passed to <tt>cancel()</tt>.
 	 */
-	public void schedule(long when, String type, Runnable handler);
+	public long schedule(long when, String type, Runnable handler);
+
+	/**
+	 * Cancel an interrupt that has not occurred yet.
+	 *
+	 * @param	handle	the handle returned by <tt>schedule()</tt>.
+	 * @return	<tt>true</tt> if the interrupt was cancelled, or
+	 *		<tt>false</tt> if it already occurred or was already
+	 *		cancelled.
+	 */
+	public boolean cancel(long handle);
 	
 	/**
 	 * Advance the simulated time.
@@ -158,6 +169,24 @@ public abstract class Privilege {
 	 *		MIPS user code.
 	 */
 	public void tick(boolean inKernelMode);
+
+	/**
+	 * Return the number of user ticks that can pass before any pending
+	 * interrupt becomes due. That many ticks may be counted with
+	 * <tt>tickUser()</tt>, as long as no interrupt is scheduled in the
+	 * meantime.
+	 *
+	 * @return	the number of user ticks that can be counted in bulk.
+	 */
+	public long userTicksUntilDue();
+
+	/**
+	 * Advance the simulated time by the specified number of user ticks,
+	 * without invoking any interrupt handlers.
+	 *
+	 * @param	ticks	the number of user ticks to count.
+	 */
+	public void tickUser(long ticks);
     }
 
     /**
@@ -0,0 +1,94 @@
+/* futex.c
+ *	Simple program to test the futexWait(), futexWake() and sharePage()
+ *	syscalls.
+ *
+ *	The parent maps a shared page and sleeps on a word in it with no
+ *	timeout. It then execs a second copy of this program, which maps the
+ *	same page and wakes the parent from the other process.
+ */
+
+#include "syscall.h"
+
+#define SHARED_KEY	1
+
+int word = 5;
+
+/* Run in the exec'd child: wake the parent sleeping on the shared word. */
+int waker()
+{
+    int *shared = sharePage(SHARED_KEY);
+    int woken;
+
+    if (shared == (int *) -1)
+	return -1;
+
+    /* spin until the parent is actually asleep, then wake it */
+    shared[1] = 1;
+    while ((woken = futexWake(&shared[0], 1)) == 0)
+	;
+
+    return woken;
+}
+
+int main(int argc, char **argv)
+{
+    int failures = 0;
+    int *shared;
+    char *execArgs[2];
+    int pid, status;
+
+    if (argc > 1)
+	return waker();
+
+    if (futexWait(&word, 4, 1000) != 1) {
+	printf("futexWait with a stale value did not return at once\n");
+	failures++;
+    }
+
+    if (futexWait(&word, 5, 1000) != 2) {
+	printf("futexWait with the current value did not time out\n");
+	failures++;
+    }
+
+    if (futexWake(&word, 1) != 0) {
+	printf("futexWake woke a thread that was not waiting\n");
+	failures++;
+    }
+
+    if (futexWait((int *) 2, 0, 1000) != -1 ||
+	futexWait(&word, 5, -1) != -1 ||
+	futexWake((int *) -4, 1) != -1) {
+	printf("futex syscalls accepted an invalid argument\n");
+	failures++;
+    }
+
+    shared = sharePage(SHARED_KEY);
+    if (shared == (int *) -1 || shared[0] != 0) {
+	printf("sharePage did not map a zero-filled page\n");
+	return failures + 1;
+    }
+
+    execArgs[0] = "futex.coff";
+    execArgs[1] = "waker";
+    pid = exec("futex.coff", 2, execArgs);
+    if (pid == -1) {
+	printf("could not exec the waker\n");
+	return failures + 1;
+    }
+
+    /* no timeout: only the other process can end this wait */
+    if (futexWait(&shared[0], 0, 0) != 0 || shared[1] != 1) {
+	printf("futexWait was not woken by the other process\n");
+	failures++;
+    }
+
+    if (join(pid, &status) != 1 || status != 1) {
+	printf("the waker did not wake exactly one thread\n");
+	failures++;
+    }
+
+    if (failures == 0)
+	printf("futex tests passed\n");
+
+    return failures;
+}
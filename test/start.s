@@ -67,3 +67,8 @@ name:				; \
 	SYSCALLSTUB(mmap, syscallMmap)
 	SYSCALLSTUB(connect, syscallConnect)
 	SYSCALLSTUB(accept, syscallAccept)
+	SYSCALLSTUB(setDeadline, syscallSetDeadline)
+	SYSCALLSTUB(nextPeriod, syscallNextPeriod)
+	SYSCALLSTUB(futexWait, syscallFutexWait)
+	SYSCALLSTUB(futexWake, syscallFutexWake)
+	SYSCALLSTUB(sharePage, syscallSharePage)
@@ -25,6 +25,11 @@
 #define syscallMmap		10
 #define syscallConnect		11
 #define syscallAccept		12
+#define syscallSetDeadline	13
+#define syscallNextPeriod	14
+#define syscallFutexWait	15
+#define syscallFutexWake	16
+#define syscallSharePage	17
 
 /* Don't want the assembler to see C code, but start.s includes syscall.h. */
 #ifndef START_S
@@ -257,6 +262,68 @@ int connect(int host, int port);
  */
 int accept(int port);
 
+/* REAL-TIME SCHEDULING SYSCALLS: setDeadline(), nextPeriod() */
+
+/**
+ * Make the calling thread a periodic real-time thread. Every <i>period</i>
+ * clock ticks a new job is released, which may use up to <i>budget</i> ticks
+ * of processor time and must finish before the next period begins. A period
+ * of 0 makes the thread an ordinary thread again.
+ *
+ * Only supported when the kernel uses an earliest-deadline-first scheduler.
+ *
+ * Returns 0 on success, or -1 if an error occurred.
+ */
+int setDeadline(int period, int budget);
+
+/**
+ * Finish the current job of the calling thread, and wait until the next job
+ * is released at the start of the next period.
+ *
+ * Returns 0 on success, or -1 if the calling thread is not periodic.
+ */
+int nextPeriod();
+
+/* USER-LEVEL SYNCHRONIZATION SYSCALLS: futexWait(), futexWake(),
+ * sharePage()
+ */
+
+/**
+ * If the word at <i>addr</i> still holds <i>expected</i>, sleep until another
+ * thread calls futexWake() on the same word, or until <i>timeout</i> clock
+ * ticks have passed. A <i>timeout</i> of 0 sleeps until woken. The check and
+ * the decision to sleep are atomic, so a wakeup issued after the word is
+ * changed cannot be lost. The word must be aligned to 4 bytes.
+ *
+ * Futexes are identified by the physical memory they occupy, so processes
+ * that map the same page with sharePage() can wait and wake on the same
+ * word.
+ *
+ * Returns 0 if the thread was woken by futexWake(), 1 if the word did not
+ * hold <i>expected</i>, 2 if the timeout expired, or -1 if <i>addr</i> or
+ * <i>timeout</i> is invalid.
+ */
+int futexWait(int *addr, int expected, int timeout);
+
+/**
+ * Wake up at most <i>count</i> threads sleeping in futexWait() on the word at
+ * <i>addr</i>.
+ *
+ * Returns the number of threads woken, or -1 if <i>addr</i> is invalid.
+ */
+int futexWake(int *addr, int count);
+
+/**
+ * Map the page shared under <i>key</i> into the address space of this
+ * process, after its last page. Every process that calls sharePage() with the
+ * same key sees the same page of memory. The page is zero-filled when the
+ * first process maps it, and is freed when the last process using it exits.
+ * Calling sharePage() again with the same key returns the same address.
+ *
+ * Returns the address of the page, or -1 if no memory is available.
+ */
+int *sharePage(int key);
+
 #endif /* START_S */
 
 #endif /* SYSCALL_H */
@@ -1,7 +1,6 @@
 package nachos.threads;
 
-import java.util.LinkedList; 
-import java.util.Queue;
+import java.util.Arrays;
 
 import nachos.machine.*;
 
@@ -25,30 +24,25 @@ public class Alarm {
 
     /**
      * The timer interrupt handler. This is called by the machine's timer
-     * periodically (approximately every 500 clock ticks). Causes the current
-     * thread to yield, forcing a context switch if there is another threadCauses the current
-     * thread to yield, forcing a context switch if there is
-     * that should be run.
+     * periodically (approximately every 500 clock ticks). Wakes every thread
+     * whose wake time has been reached; this only touches those threads, not
+     * the ones that are still asleep. A thread in a timed wait is first
+     * removed from the queue it is waiting on. Then, unless the scheduler
+     * decides otherwise, causes the current thread to yield, forcing a
+     * context switch if there is another thread that should be run.
      */
     public void timerInterrupt() {
-        boolean s = Machine.interrupt().disable();
-        long current_time = Machine.timer().getTime();
-        int len = sleepingQueue.size();
-        
-        for(int i=0; i<len; i++)
-        {
-            Pair p = sleepingQueue.remove();
-            if(p.time < current_time)
-            {
-                p.t.ready();
-            }
-            else
-            {
-                sleepingQueue.add(p);
-            }
-        }
-        KThread.currentThread().yield();
-        Machine.interrupt().restore(s);
+	boolean intStatus = Machine.interrupt().disable();
+
+	long time = Machine.timer().getTime();
+
+	while (numSleeping > 0 && sleeping[0].time <= time)
+	    expire(sleeping[0]);
+
+	if (ThreadedKernel.scheduler.timerInterrupt(KThread.currentThread()))
+	    KThread.yield();
+
+	Machine.interrupt().restore(intStatus);
     }
 
     /**
@@ -61,28 +55,209 @@ public class Alarm {
      * (current time) >= (WaitUntil called time)+(x)
      * </blockquote>
      *
+     * <p>
+     * The thread may be woken up earlier by <tt>cancel()</tt>.
+     *
      * @param	x	the minimum number of clock ticks to wait.
      *
      * @see	nachos.machine.Timer#getTime()
      */
     public void waitUntil(long x) {
-	// for now, cheat just to get something working (busy waiting is bad)
-        long wakeTime = Machine.timer().getTime() + x;
-        KThread ct = KThread.currentThread();
-        
-        if(ct != null)
-        {
-            boolean s = Machine.interrupt().disable();
-            Pair newEntry = new Pair();
-            newEntry.t = ct;
-            newEntry.time = wakeTime;
-            sleepingQueue.add(newEntry);
-            KThread.sleep();
-            Machine.interrupt().restore(s);
-        }
-       
-	/*while (wakeTime > Machine.timer().getTime())
-	    KThread.yield();*/
+	if (x <= 0)
+	    return;
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	add(KThread.currentThread(), Machine.timer().getTime() + x, null);
+	KThread.sleep();
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Put the current thread to sleep on the specified queue for at most
+     * <i>x</i> ticks. The current thread must already be waiting on
+     * <tt>waitQueue</tt>, and interrupts must be disabled. The thread is woken
+     * up either by another thread taking it off the queue with
+     * <tt>nextThread()</tt>, or in the first timer interrupt after <i>x</i>
+     * ticks, which removes it from the queue before waking it. Exactly one of
+     * the two wakes the thread up.
+     *
+     * @param	waitQueue	the queue the current thread is waiting on.
+     * @param	x		the maximum number of clock ticks to wait.
+     * @return	<tt>true</tt> if the thread was taken off the queue by another
+     *		thread, or <tt>false</tt> if the time ran out.
+     */
+    public boolean sleepOn(ThreadQueue waitQueue, long x) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	KThread thread = KThread.currentThread();
+
+	if (x <= 0)
+	    return !waitQueue.remove(thread);
+
+	Pair pair = add(thread, Machine.timer().getTime() + x, waitQueue);
+	KThread.sleep();
+
+	// if the timer has not gone off yet, the thread was woken up normally
+	boolean woken;
+	if (pair.index != -1) {
+	    remove(pair);
+	    woken = true;
+	}
+	else {
+	    woken = !pair.timedOut;
+	}
+
+	free(pair);
+	return woken;
+    }
+
+    /**
+     * Wake up the specified thread if it is sleeping in <tt>waitUntil()</tt>,
+     * before its wake time is reached. A thread in a timed wait on a queue
+     * is woken up as if its time had run out.
+     *
+     * @param	thread	the thread to wake up.
+     * @return	<tt>true</tt> if the thread was sleeping.
+     */
+    public boolean cancel(KThread thread) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	Pair pair = thread.alarmPair;
+	boolean sleeping = (pair != null && pair.alarm == this &&
+			    pair.index != -1);
+
+	if (sleeping)
+	    expire(pair);
+
+	Machine.interrupt().restore(intStatus);
+	return sleeping;
+    }
+
+    /**
+     * The wake time of the specified pair has been reached. Remove it from
+     * the sleeping threads and wake up its thread, unless the thread is in a
+     * timed wait and has already been taken off its queue by another thread.
+     * A pair for a timed wait is left for its thread to free.
+     */
+    private void expire(Pair pair) {
+	KThread thread = pair.thread;
+
+	remove(pair);
+
+	if (pair.waitQueue == null) {
+	    free(pair);
+	    thread.ready();
+	}
+	else {
+	    pair.timedOut = pair.waitQueue.remove(thread);
+	    if (pair.timedOut)
+		thread.ready();
+	}
+    }
+
+    /**
+     * Add the specified thread to the sleeping threads, to be woken up at the
+     * specified time.
+     */
+    private Pair add(KThread thread, long time, ThreadQueue waitQueue) {
+	Lib.assertTrue(thread.alarmPair == null);
+
+	Pair pair = freePairs;
+	if (pair != null)
+	    freePairs = pair.nextFree;
+	else
+	    pair = new Pair();
+
+	pair.alarm = this;
+	pair.thread = thread;
+	pair.time = time;
+	pair.id = numAdded++;
+	pair.waitQueue = waitQueue;
+	pair.timedOut = false;
+	thread.alarmPair = pair;
+
+	if (numSleeping == sleeping.length)
+	    sleeping = Arrays.copyOf(sleeping, 2*numSleeping);
+
+	sleeping[numSleeping] = pair;
+	pair.index = numSleeping;
+	siftUp(numSleeping++);
+
+	return pair;
+    }
+
+    /**
+     * Remove the specified pair from the sleeping threads.
+     */
+    private void remove(Pair pair) {
+	int index = pair.index;
+
+	numSleeping--;
+	if (index != numSleeping) {
+	    Pair moved = sleeping[numSleeping];
+	    sleeping[index] = moved;
+	    moved.index = index;
+
+	    siftDown(index);
+	    if (moved.index == index)
+		siftUp(index);
+	}
+	sleeping[numSleeping] = null;
+	pair.index = -1;
+    }
+
+    /**
+     * Return the specified pair, which must have been removed from the
+     * sleeping threads, to the pool.
+     */
+    private void free(Pair pair) {
+	pair.thread.alarmPair = null;
+	pair.alarm = null;
+	pair.thread = null;
+	pair.waitQueue = null;
+	pair.nextFree = freePairs;
+	freePairs = pair;
+    }
+
+    private void siftUp(int index) {
+	Pair pair = sleeping[index];
+
+	while (index > 0) {
+	    int parent = (index-1)/2;
+	    if (!pair.before(sleeping[parent]))
+		break;
+
+	    sleeping[index] = sleeping[parent];
+	    sleeping[index].index = index;
+	    index = parent;
+	}
+
+	sleeping[index] = pair;
+	pair.index = index;
+    }
+
+    private void siftDown(int index) {
+	Pair pair = sleeping[index];
+
+	while (true) {
+	    int child = 2*index+1;
+	    if (child >= numSleeping)
+		break;
+	    if (child+1 < numSleeping &&
+		sleeping[child+1].before(sleeping[child]))
+		child++;
+	    if (!sleeping[child].before(pair))
+		break;
+
+	    sleeping[index] = sleeping[child];
+	    sleeping[index].index = index;
+	    index = child;
+	}
+
+	sleeping[index] = pair;
+	pair.index = index;
     }
     
     private static class AlarmTest implements Runnable {
@@ -131,10 +306,30 @@ public class Alarm {
         System.out.println("******** testing of alarm and waitUntil completed **********");
     }
     
-    private class Pair {
-        public KThread t;
-        public long time;
+    /**
+     * A sleeping thread and its wake time, and for a timed wait, the queue it
+     * is waiting on. Pairs are kept in a binary heap ordered by wake time,
+     * and among threads with the same wake time, by the order they went to
+     * sleep. The index of a pair that is not in the heap is -1. Free pairs
+     * are kept in a pool, chained through <tt>nextFree</tt>, so that sleeping
+     * allocates nothing.
+     */
+    static class Pair {
+	boolean before(Pair pair) {
+	    return time < pair.time || (time == pair.time && id < pair.id);
+	}
+
+	Alarm alarm;
+	KThread thread;
+	ThreadQueue waitQueue;
+	boolean timedOut;
+	long time, id;
+	int index = -1;
+	Pair nextFree;
     }
-    
-    Queue<Pair> sleepingQueue = new LinkedList<>();
+
+    private Pair[] sleeping = new Pair[16];
+    private int numSleeping = 0;
+    private long numAdded = 0;
+    private Pair freePairs = null;
 }
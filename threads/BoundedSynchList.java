@@ -0,0 +1,251 @@
+package nachos.threads;
+
+import java.util.Collection;
+import nachos.machine.*;
+
+/**
+ * A synchronized queue that holds at most a fixed number of elements. Like
+ * <tt>SynchList</tt>, <tt>add()</tt> and <tt>removeFirst()</tt> block until
+ * they can complete. In addition, <tt>offer()</tt> and <tt>poll()</tt> give
+ * up at once, or after a given number of clock ticks, and
+ * <tt>drainTo()</tt> removes many elements with a single acquisition of the
+ * lock.
+ *
+ * <p>
+ * A waiting thread is only woken up when an element or room for one becomes
+ * available, and only if some thread is actually waiting for it.
+ */
+public class BoundedSynchList<T> {
+    /**
+     * Allocate a new bounded synchronized queue.
+     *
+     * @param	capacity	the maximum number of elements in the queue.
+     */
+    public BoundedSynchList(int capacity) {
+	Lib.assertTrue(capacity > 0);
+
+	elements = new Object[capacity];
+	lock = new Lock();
+	notEmpty = new Condition2(lock);
+	notFull = new Condition2(lock);
+    }
+
+    /**
+     * Add the specified object to the end of the queue, blocking until the
+     * queue is not full if necessary. If another thread is waiting in
+     * <tt>removeFirst()</tt> or <tt>poll()</tt>, it is woken up.
+     *
+     * @param	o	the object to add. Must not be <tt>null</tt>.
+     */
+    public void add(T o) {
+	Lib.assertTrue(o != null);
+
+	lock.acquire();
+	while (count == elements.length)
+	    waitNotFull(-1);
+	insert(o);
+	lock.release();
+    }
+
+    /**
+     * Add the specified object to the end of the queue if it is not full.
+     *
+     * @param	o	the object to add. Must not be <tt>null</tt>.
+     * @return	<tt>true</tt> if the object was added, or <tt>false</tt> if
+     *		the queue was full.
+     */
+    public boolean offer(T o) {
+	return offer(o, 0);
+    }
+
+    /**
+     * Add the specified object to the end of the queue, waiting at most
+     * <i>ticks</i> clock ticks for the queue not to be full.
+     *
+     * @param	o	the object to add. Must not be <tt>null</tt>.
+     * @param	ticks	the maximum number of clock ticks to wait.
+     * @return	<tt>true</tt> if the object was added, or <tt>false</tt> if
+     *		the time ran out.
+     */
+    public boolean offer(T o, long ticks) {
+	Lib.assertTrue(o != null);
+
+	// a full queue can be reported without taking the lock
+	if (ticks <= 0 && count == elements.length)
+	    return false;
+
+	long deadline = Machine.timer().getTime() + Math.max(ticks, 0);
+
+	lock.acquire();
+	while (count == elements.length && waitNotFull(deadline))
+	    ;
+
+	boolean added = (count < elements.length);
+	if (added)
+	    insert(o);
+	lock.release();
+
+	return added;
+    }
+
+    /**
+     * Remove an object from the front of the queue, blocking until the queue
+     * is non-empty if necessary.
+     *
+     * @return	the element removed from the front of the queue.
+     */
+    public T removeFirst() {
+	lock.acquire();
+	while (count == 0)
+	    waitNotEmpty(-1);
+	T o = extract();
+	lock.release();
+
+	return o;
+    }
+
+    /**
+     * Remove an object from the front of the queue if it is non-empty.
+     *
+     * @return	the element removed from the front of the queue, or
+     *		<tt>null</tt> if the queue was empty.
+     */
+    public T poll() {
+	return poll(0);
+    }
+
+    /**
+     * Remove an object from the front of the queue, waiting at most
+     * <i>ticks</i> clock ticks for the queue to be non-empty.
+     *
+     * @param	ticks	the maximum number of clock ticks to wait.
+     * @return	the element removed from the front of the queue, or
+     *		<tt>null</tt> if the time ran out.
+     */
+    public T poll(long ticks) {
+	// an empty queue can be reported without taking the lock
+	if (ticks <= 0 && count == 0)
+	    return null;
+
+	long deadline = Machine.timer().getTime() + Math.max(ticks, 0);
+
+	lock.acquire();
+	while (count == 0 && waitNotEmpty(deadline))
+	    ;
+
+	T o = (count > 0) ? extract() : null;
+	lock.release();
+
+	return o;
+    }
+
+    /**
+     * Remove up to <i>max</i> objects from the front of the queue, and add
+     * them to the specified collection in order. Does not wait.
+     *
+     * @param	c	the collection to add the objects to.
+     * @param	max	the maximum number of objects to remove.
+     * @return	the number of objects removed.
+     */
+    public int drainTo(Collection<? super T> c, int max) {
+	if (count == 0 || max <= 0)
+	    return 0;
+
+	lock.acquire();
+
+	int n = Math.min(max, count);
+	for (int i=0; i<n; i++) {
+	    c.add(elementAt(head));
+	    elements[head] = null;
+	    head = (head+1) % elements.length;
+	}
+	count -= n;
+
+	for (int i=Math.min(n, waitingProducers); i>0; i--)
+	    notFull.wake();
+
+	lock.release();
+
+	return n;
+    }
+
+    /**
+     * Return the number of objects in the queue. By the time this returns,
+     * other threads may already have changed it.
+     *
+     * @return	the number of objects in the queue.
+     */
+    public int size() {
+	return count;
+    }
+
+    private void insert(T o) {
+	elements[(head+count) % elements.length] = o;
+	count++;
+
+	if (waitingConsumers > 0)
+	    notEmpty.wake();
+    }
+
+    private T extract() {
+	T o = elementAt(head);
+	elements[head] = null;
+	head = (head+1) % elements.length;
+	count--;
+
+	if (waitingProducers > 0)
+	    notFull.wake();
+
+	return o;
+    }
+
+    /**
+     * Return the object at the specified position in <tt>elements</tt>,
+     * which only ever holds objects of type <tt>T</tt>.
+     */
+    @SuppressWarnings("unchecked")
+    private T elementAt(int index) {
+	return (T) elements[index];
+    }
+
+    /**
+     * Wait on <tt>notEmpty</tt>, until the specified time, or indefinitely if
+     * it is negative. Return <tt>false</tt> if the time has already passed.
+     */
+    private boolean waitNotEmpty(long deadline) {
+	waitingConsumers++;
+	boolean waited = sleep(notEmpty, deadline);
+	waitingConsumers--;
+
+	return waited;
+    }
+
+    private boolean waitNotFull(long deadline) {
+	waitingProducers++;
+	boolean waited = sleep(notFull, deadline);
+	waitingProducers--;
+
+	return waited;
+    }
+
+    private static boolean sleep(Condition2 condition, long deadline) {
+	if (deadline < 0) {
+	    condition.sleep();
+	    return true;
+	}
+
+	long ticks = deadline - Machine.timer().getTime();
+	if (ticks <= 0)
+	    return false;
+
+	condition.sleepFor(ticks);
+	return true;
+    }
+
+    private Object[] elements;
+    private int head = 0, count = 0;
+    private int waitingConsumers = 0, waitingProducers = 0;
+
+    private Lock lock;
+    private Condition2 notEmpty, notFull;
+}
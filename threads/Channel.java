@@ -0,0 +1,191 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A bounded channel through which threads pass 32-bit words, in the order
+ * they were spoken. A channel buffers up to <i>capacity</i> words: a speaker
+ * only waits if the buffer is full, and a listener only waits if it is
+ * empty. A channel with capacity 0 is synchronous, like a
+ * <tt>Communicator</tt>: each speaker waits until a listener has received
+ * its word.
+ *
+ * <p>
+ * The batched <tt>speak()</tt> and <tt>listen()</tt> pass as many words as
+ * the buffer allows each time they acquire the channel's lock, rather than
+ * one word per acquisition.
+ */
+public class Channel {
+    /**
+     * Allocate a new channel.
+     *
+     * @param	capacity	the number of words the channel buffers, or 0
+     *				for a synchronous channel.
+     */
+    public Channel(int capacity) {
+	Lib.assertTrue(capacity >= 0);
+
+	this.capacity = capacity;
+
+	buffer = new int[Math.max(capacity, 1)];
+	lock = new Lock();
+	spaceAvailable = new Condition2(lock);
+	wordsAvailable = new Condition2(lock);
+	delivered = new Condition2(lock);
+    }
+
+    /**
+     * Send <i>word</i> through this channel. Wait until there is room for it
+     * in the buffer, or if this channel is synchronous, until a listener has
+     * received it.
+     *
+     * @param	word	the word to send.
+     */
+    public void speak(int word) {
+	lock.acquire();
+
+	waitForSpace();
+	buffer[(head+count) % buffer.length] = word;
+	added(1);
+
+	waitForDelivery();
+
+	lock.release();
+    }
+
+    /**
+     * Send all of <i>words</i> through this channel, in order, as if by
+     * calling <tt>speak()</tt> on each one, except that other speakers' words
+     * may be interleaved with them.
+     *
+     * @param	words	the words to send.
+     */
+    public void speak(int[] words) {
+	lock.acquire();
+
+	int sent = 0;
+	while (sent < words.length) {
+	    waitForSpace();
+
+	    int n = Math.min(words.length - sent, buffer.length - count);
+	    for (int i=0; i<n; i++)
+		buffer[(head+count+i) % buffer.length] = words[sent+i];
+
+	    sent += n;
+	    added(n);
+	}
+
+	waitForDelivery();
+
+	lock.release();
+    }
+
+    /**
+     * Wait for a word to be sent through this channel, and return it.
+     *
+     * @return	the word received.
+     */
+    public int listen() {
+	lock.acquire();
+
+	waitForWords();
+	int word = buffer[head];
+	removed(1);
+
+	lock.release();
+
+	return word;
+    }
+
+    /**
+     * Wait for at least one word to be sent through this channel, and
+     * receive up to <i>n</i> words into <i>words</i>, starting at index 0.
+     *
+     * @param	words	the array to receive the words into.
+     * @param	n	the maximum number of words to receive.
+     * @return	the number of words received, between 1 and <i>n</i>.
+     */
+    public int listen(int[] words, int n) {
+	Lib.assertTrue(n >= 1 && n <= words.length);
+
+	lock.acquire();
+
+	waitForWords();
+
+	n = Math.min(n, count);
+	for (int i=0; i<n; i++)
+	    words[i] = buffer[(head+i) % buffer.length];
+
+	removed(n);
+
+	lock.release();
+
+	return n;
+    }
+
+    private void waitForSpace() {
+	while (count == buffer.length) {
+	    waitingSpeakers++;
+	    spaceAvailable.sleep();
+	    waitingSpeakers--;
+	}
+    }
+
+    private void waitForWords() {
+	while (count == 0) {
+	    waitingListeners++;
+	    wordsAvailable.sleep();
+	    waitingListeners--;
+	}
+    }
+
+    /**
+     * If this channel is synchronous, wait until every word added so far has
+     * been received.
+     */
+    private void waitForDelivery() {
+	if (capacity > 0)
+	    return;
+
+	long last = numAdded;
+	while (numRemoved < last)
+	    delivered.sleep();
+    }
+
+    /**
+     * Account for <i>n</i> words added to the buffer, and wake up as many
+     * waiting listeners as can be given one.
+     */
+    private void added(int n) {
+	count += n;
+	numAdded += n;
+
+	for (int i=Math.min(n, waitingListeners); i>0; i--)
+	    wordsAvailable.wake();
+    }
+
+    /**
+     * Account for <i>n</i> words removed from the front of the buffer, and
+     * wake up as many waiting speakers as there is now room for.
+     */
+    private void removed(int n) {
+	head = (head+n) % buffer.length;
+	count -= n;
+	numRemoved += n;
+
+	for (int i=Math.min(n, waitingSpeakers); i>0; i--)
+	    spaceAvailable.wake();
+
+	if (capacity == 0)
+	    delivered.wakeAll();
+    }
+
+    private int capacity;
+    private int[] buffer;
+    private int head = 0, count = 0;
+    private long numAdded = 0, numRemoved = 0;
+    private int waitingSpeakers = 0, waitingListeners = 0;
+
+    private Lock lock;
+    private Condition2 spaceAvailable, wordsAvailable, delivered;
+}
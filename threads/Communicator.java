@@ -8,21 +8,19 @@ import nachos.machine.*;
  * and multiple threads can be waiting to <i>listen</i>. But there should never
  * be a time when both a speaker and a listener are waiting, because the two
  * threads can be paired off at this point.
+ *
+ * <p>
+ * A communicator is a <tt>Channel</tt> with capacity 0. Each communicator is
+ * independent of the others.
+ *
+ * @see	nachos.threads.Channel
  */
 public class Communicator {
     /**
      * Allocate a new communicator.
      */
-   
-    
     public Communicator() {
-         conditionVariablelock = new Lock();
-         speakerVariable = new Condition2((conditionVariablelock));
-         listenerVariable = new Condition2((conditionVariablelock));
-//         sleepingListenerCount = 0;
-//         sleepingSpeakerCount = 0;
-         dataVariable = 0;
-        
+	channel = new Channel(0);
     }
 
     /**
@@ -36,45 +34,7 @@ public class Communicator {
      * @param	word	the integer to transfer.
      */
     public void speak(int word) {
-//        conditionVariablelock.acquire();
-//
-//        if(sleepingListenerCount>0 done==true){
-//            listenerVariable.wake();
-//            DataVariable = word;
-//            sleepingListenerCount--;
-//        }
-//
-//        else{
-//            sleepingSpeakerCount++;
-//            speakerVariable.sleep();
-//            DataVariable = word;
-//            listenerVariable.wake();
-//            sleepingListenerCount--;
-//
-//        }
-//
-//
-//
-//        conditionVariablelock.release();
-
-        conditionVariablelock.acquire();
-        while(room1==true)
-        {
-            speakerVariable.sleep();
-        }
-        room1 = true;
-        room2 = false;
-        dataVariable = word;
-        listenerVariable.wakeAll();
-        speakerVariable.sleep();
-        room1=false;
-        room2= true;
-        speakerVariable.wakeAll();
-        conditionVariablelock.release();
-
-
-
-        
+	channel.speak(word);
     }
 
     /**
@@ -82,57 +42,10 @@ public class Communicator {
      * the <i>word</i> that thread passed to <tt>speak()</tt>.
      *
      * @return	the integer transferred.
-     */    
-    
-    
+     */
     public int listen() {
-//        int ret = 0;
-//        conditionVariablelock.acquire();
-//
-//        if(sleepingSpeakerCount>0){
-//            speakerVariable.wake();
-//            sleepingListenerCount++;
-//            listenerVariable.sleep();
-//            ret = DataVariable;
-//
-//
-//
-//        }
-//        else{
-//            sleepingListenerCount++;
-//            listenerVariable.sleep();
-//            ret = DataVariable;
-//
-//        }
-//
-//        conditionVariablelock.release();
-        int ret = 0;
-
-        conditionVariablelock.acquire();
-        while(room2==true)
-        {
-            listenerVariable.sleep();
-        }
-        room2 = true;
-        ret = dataVariable;
-        speakerVariable.wakeAll();
-        conditionVariablelock.release();
-
-	    return ret;
+	return channel.listen();
     }
-    
-     private Lock conditionVariablelock;
-     private Condition2 speakerVariable;
-     private Condition2 listenerVariable;
-     private static int dataVariable;
-//     private static int sleepingSpeakerCount;
-//     private static int sleepingListenerCount;
-//     private static boolean done = false;
-//     private static boolean valid = false;
-    private static boolean room1 = false;
-    private static boolean room2 = true;
-//    private static int  status = 0;
 
-     
-     
+    private Channel channel;
 }
@@ -79,12 +79,17 @@ public class Condition {
     public void sleep() {
 	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 
+	long startTime = (profile != null) ? Machine.timer().getTime() : 0;
+
 	Semaphore waiter = new Semaphore(0);
 	waitQueue.add(waiter);
 
 	conditionLock.release();
 	waiter.P();
 	conditionLock.acquire();	
+
+	if (profile != null)
+	    profile.acquired(Machine.timer().getTime() - startTime, true);
     }
 
     /**
@@ -111,4 +116,7 @@ public class Condition {
 
     private Lock conditionLock;
     private LinkedList<Semaphore> waitQueue;
+
+    private ContentionProfiler.Record profile =
+	ContentionProfiler.newRecord("Condition");
 }
@@ -35,13 +35,45 @@ public class Condition2 {
 	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 
         boolean s = Machine.interrupt().disable();
+	long startTime = (profile != null) ? Machine.timer().getTime() : 0;
 	conditionLock.release();
         waitingQueue.waitForAccess(KThread.currentThread());
         KThread.sleep();
 	conditionLock.acquire();
+	profileSleep(startTime);
         Machine.interrupt().restore(s);
     }
 
+    /**
+     * Like <tt>sleep()</tt>, but wake up after at most <i>ticks</i> clock
+     * ticks even if no other thread wakes the current thread. The thread will
+     * automatically reacquire the lock before <tt>sleepFor()</tt> returns. If
+     * <i>ticks</i> is not positive, return immediately without releasing the
+     * lock.
+     *
+     * @param	ticks	the maximum number of clock ticks to sleep.
+     * @return	<tt>true</tt> if the thread was woken by <tt>wake()</tt> or
+     *		<tt>wakeAll()</tt>, or <tt>false</tt> if the time ran out.
+     */
+    public boolean sleepFor(long ticks) {
+	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
+
+	if (ticks <= 0)
+	    return false;
+
+	boolean intStatus = Machine.interrupt().disable();
+	long startTime = (profile != null) ? Machine.timer().getTime() : 0;
+
+	conditionLock.release();
+	waitingQueue.waitForAccess(KThread.currentThread());
+	boolean woken = ThreadedKernel.alarm.sleepOn(waitingQueue, ticks);
+	conditionLock.acquire();
+	profileSleep(startTime);
+
+	Machine.interrupt().restore(intStatus);
+	return woken;
+    }
+
     /**
      * Wake up at most one thread sleeping on this condition variable. The
      * current thread must hold the associated lock.
@@ -173,7 +205,19 @@ public class Condition2 {
         t1.join();
     }
 
+    /**
+     * Record a sleep on this condition variable with the contention
+     * profiler, if it is enabled.
+     */
+    private void profileSleep(long startTime) {
+	if (profile != null)
+	    profile.acquired(Machine.timer().getTime() - startTime, true);
+    }
+
     private Lock conditionLock;
     
     private ThreadQueue waitingQueue = null;
+
+    private ContentionProfiler.Record profile =
+	ContentionProfiler.newRecord("Condition2");
 }
@@ -0,0 +1,254 @@
+package nachos.threads;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import nachos.machine.*;
+
+/**
+ * Records contention on the synchronization primitives. For each
+ * <tt>Lock</tt>, <tt>Semaphore</tt>, <tt>Condition</tt> and
+ * <tt>Condition2</tt>, it counts the acquires and the contended acquires,
+ * keeps histograms of the wait times and (for locks) the hold times in clock
+ * ticks, and counts the acquires made by each thread. For a semaphore an
+ * acquire is a <tt>P()</tt>, and for a condition variable it is a
+ * <tt>sleep()</tt>, which always waits.
+ *
+ * <p>
+ * Primitives are identified by the place they were allocated, such as
+ * <tt>Lock at UserProcess.java:1120</tt>. All primitives allocated at the
+ * same place share one record, so that primitives allocated over and over
+ * (such as the semaphores <tt>Condition</tt> allocates for each waiter) take
+ * up a bounded amount of memory.
+ *
+ * <p>
+ * Profiling is off unless <tt>ContentionProfiler.enabled</tt> is
+ * <tt>true</tt>. The report is printed when Nachos halts, after the other
+ * statistics, with the records of the most waited-for primitives first.
+ */
+public class ContentionProfiler {
+    private ContentionProfiler() {
+    }
+
+    /**
+     * Return the record for a primitive of the specified kind being allocated
+     * by the caller's caller, or <tt>null</tt> if profiling is off.
+     *
+     * @param	kind	the kind of primitive, such as <tt>"Lock"</tt>.
+     * @return	the record to update, or <tt>null</tt>.
+     */
+    static Record newRecord(String kind) {
+	if (!enabled)
+	    return null;
+
+	String site = allocationSite();
+	if (site == null)
+	    return null;
+
+	String name = kind + " at " + site;
+
+	Record record = records.get(name);
+	if (record == null) {
+	    record = new Record(name);
+	    records.put(name, record);
+	}
+
+	record.numInstances++;
+	return record;
+    }
+
+    /**
+     * Return the file and line of the first stack frame outside the
+     * profiler and the constructors of the primitives, or <tt>null</tt> for
+     * the semaphores that <tt>Condition</tt> allocates for its waiters, which
+     * are profiled as part of the condition variable.
+     */
+    private static String allocationSite() {
+	StackTraceElement[] trace = new Throwable().getStackTrace();
+
+	for (int i=0; i<trace.length; i++) {
+	    String className = trace[i].getClassName();
+
+	    if (className.equals(ContentionProfiler.class.getName()) ||
+		trace[i].getMethodName().equals("<init>") &&
+		(className.equals(Lock.class.getName()) ||
+		 className.equals(Semaphore.class.getName()) ||
+		 className.equals(Condition.class.getName()) ||
+		 className.equals(Condition2.class.getName())))
+		continue;
+
+	    if (className.equals(Condition.class.getName()))
+		return null;
+
+	    return trace[i].getFileName() + ":" + trace[i].getLineNumber();
+	}
+
+	return "unknown";
+    }
+
+    /**
+     * Print the records of all primitives that were acquired at least once.
+     */
+    public static void print() {
+	ArrayList<Record> list = new ArrayList<Record>();
+	for (Record record : records.values()) {
+	    if (record.numAcquires > 0)
+		list.add(record);
+	}
+
+	Collections.sort(list, new Comparator<Record>() {
+		public int compare(Record a, Record b) {
+		    if (a.waitTime != b.waitTime)
+			return (a.waitTime > b.waitTime) ? -1 : 1;
+
+		    return Long.compare(b.numAcquires, a.numAcquires);
+		}
+	    });
+
+	System.out.println("Contention profile:");
+	for (Record record : list)
+	    record.print();
+    }
+
+    /**
+     * The statistics of the primitives allocated at one place.
+     */
+    static class Record {
+	Record(String name) {
+	    this.name = name;
+	}
+
+	/**
+	 * Record an acquire by the current thread.
+	 *
+	 * @param	waitTicks	the ticks the thread waited.
+	 * @param	contended	<tt>true</tt> if the thread had to wait.
+	 */
+	void acquired(long waitTicks, boolean contended) {
+	    numAcquires++;
+	    if (contended)
+		numContended++;
+
+	    waitTime += waitTicks;
+	    maxWait = Math.max(maxWait, waitTicks);
+	    waitHistogram[bucket(waitTicks)]++;
+
+	    String holder = KThread.currentThread().getName();
+	    Integer count = holders.get(holder);
+	    holders.put(holder, (count == null) ? 1 : count+1);
+	}
+
+	/**
+	 * Record a release by a thread that held a lock for the specified
+	 * number of ticks.
+	 *
+	 * @param	holdTicks	the ticks the lock was held.
+	 */
+	void released(long holdTicks) {
+	    numReleases++;
+
+	    holdTime += holdTicks;
+	    maxHold = Math.max(maxHold, holdTicks);
+	    holdHistogram[bucket(holdTicks)]++;
+	}
+
+	void print() {
+	    System.out.println(name + " (" + numInstances + " instance" +
+			       (numInstances == 1 ? "" : "s") + ")");
+
+	    System.out.println("    acquires " + numAcquires +
+			       ", contended " + numContended + " (" +
+			       (100 * numContended / numAcquires) + "%)");
+	    System.out.println("    wait ticks: total " + waitTime +
+			       ", max " + maxWait + ", " +
+			       histogram(waitHistogram));
+
+	    if (numReleases > 0) {
+		System.out.println("    hold ticks: total " + holdTime +
+				   ", max " + maxHold + ", " +
+				   histogram(holdHistogram));
+	    }
+
+	    ArrayList<Map.Entry<String,Integer>> entries =
+		new ArrayList<Map.Entry<String,Integer>>(holders.entrySet());
+	    Collections.sort(entries,
+			     new Comparator<Map.Entry<String,Integer>>() {
+		    public int compare(Map.Entry<String,Integer> a,
+				       Map.Entry<String,Integer> b) {
+			return b.getValue() - a.getValue();
+		    }
+		});
+
+	    StringBuffer buf = new StringBuffer("    holders:");
+	    for (int i=0; i<entries.size() && i<maxHolders; i++) {
+		buf.append(" " + entries.get(i).getKey() + " (" +
+			   entries.get(i).getValue() + ")");
+	    }
+	    if (entries.size() > maxHolders)
+		buf.append(" and " + (entries.size()-maxHolders) + " more");
+
+	    System.out.println(buf);
+	}
+
+	private String name;
+	private int numInstances = 0;
+	private long numAcquires = 0, numContended = 0, numReleases = 0;
+	private long waitTime = 0, maxWait = 0, holdTime = 0, maxHold = 0;
+	private long[] waitHistogram = new long[numBuckets];
+	private long[] holdHistogram = new long[numBuckets];
+	private HashMap<String,Integer> holders =
+	    new HashMap<String,Integer>();
+    }
+
+    /**
+     * Return the histogram bucket for the specified number of ticks. Bucket
+     * 0 holds 0 ticks, and bucket <i>b</i> holds less than 2<sup>b</sup>
+     * ticks but no less than 2<sup>b-1</sup>; the last bucket holds all
+     * longer times.
+     */
+    private static int bucket(long ticks) {
+	int b = 64 - Long.numberOfLeadingZeros(ticks);
+	return Math.min(b, numBuckets-1);
+    }
+
+    private static String histogram(long[] histogram) {
+	StringBuffer buf = new StringBuffer("histogram");
+
+	for (int b=0; b<numBuckets; b++) {
+	    if (histogram[b] == 0)
+		continue;
+
+	    String bound;
+	    if (b == 0)
+		bound = "0";
+	    else if (b == numBuckets-1)
+		bound = ">=" + (1L<<(b-1));
+	    else
+		bound = "<" + (1L<<b);
+
+	    buf.append(" " + bound + ":" + histogram[b]);
+	}
+
+	return buf.toString();
+    }
+
+    private static final int numBuckets = 24;
+    private static final int maxHolders = 5;
+
+    private static boolean enabled =
+	Config.getBoolean("ContentionProfiler.enabled", false);
+
+    private static LinkedHashMap<String,Record> records =
+	new LinkedHashMap<String,Record>();
+
+    static {
+	if (enabled) {
+	    Machine.addHaltNotificationHandler(new Runnable() {
+		    public void run() { print(); }
+		});
+	}
+    }
+}
@@ -0,0 +1,377 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * An earliest-deadline-first scheduler for periodic real-time threads.
+ *
+ * <p>
+ * A real-time thread declares a <i>period</i> and a <i>budget</i>, both in
+ * clock ticks, with <tt>setDeadline()</tt>. It then runs one job per period:
+ * each job is released at the start of a period and must finish, by calling
+ * <tt>nextPeriod()</tt>, before the end of that period, which is the job's
+ * deadline. The thread with the earliest deadline always runs first, and
+ * threads that have not declared a period run in round-robin order only
+ * when no real-time thread is ready.
+ *
+ * <p>
+ * Budgets are enforced on timer interrupts. A thread that has used up its
+ * budget for the current period has its scheduling deadline postponed by one
+ * period and its budget replenished, so an overrunning thread cannot take
+ * time reserved for the others. A job that finishes after its deadline, or
+ * that is still running when a timer interrupt finds its deadline passed,
+ * counts as one deadline miss, and is reported to the autograder, which
+ * counts it in the machine's statistics.
+ *
+ * <p>
+ * Other queues are ordered by deadline as well. Deadlines are not transferred
+ * through locks or joins.
+ */
+public class DeadlineScheduler extends Scheduler {
+    /**
+     * Allocate a new earliest-deadline-first scheduler.
+     */
+    public DeadlineScheduler() {
+    }
+
+    /**
+     * Allocate a new deadline thread queue.
+     *
+     * @param	transferPriority	ignored.
+     * @return	a new deadline thread queue.
+     */
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+	return new DeadlineQueue(false);
+    }
+
+    /**
+     * Allocate the deadline queue for the processor. The processor time used
+     * by each thread is charged against its budget.
+     *
+     * @return	a new ready queue.
+     */
+    public ThreadQueue newReadyQueue() {
+	Lib.assertTrue(readyQueue == null);
+
+	readyQueue = new DeadlineQueue(true);
+	return readyQueue;
+    }
+
+    /**
+     * Make the specified thread a periodic real-time thread, whose first job
+     * is released now. A period of 0 makes the thread an ordinary background
+     * thread again. Must be called with interrupts disabled.
+     *
+     * @param	thread	the thread to set the period of.
+     * @param	period	the length of each period, in clock ticks.
+     * @param	budget	the processor time the thread may use in each
+     *			period, in clock ticks.
+     */
+    public void setDeadline(KThread thread, long period, long budget) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	Lib.assertTrue(period >= 0 && budget >= 0 && budget <= period);
+	Lib.assertTrue(period == 0 || budget > 0);
+
+	ThreadState state = getThreadState(thread);
+
+	state.charge(Machine.timer().getTime());
+
+	state.period = period;
+	state.budget = budget;
+	state.startJob(Machine.timer().getTime());
+    }
+
+    /**
+     * Return the absolute deadline of the current job of the specified thread,
+     * or <tt>Long.MAX_VALUE</tt> if it is not a real-time thread. Must be
+     * called with interrupts disabled.
+     *
+     * @param	thread	the thread to get the deadline of.
+     * @return	the deadline of the thread's current job.
+     */
+    public long getDeadline(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	return getThreadState(thread).jobDeadline;
+    }
+
+    /**
+     * Finish the current job of the current thread, which must be a
+     * real-time thread, and sleep until the next job is released at the
+     * start of the next period. If the next period has already started,
+     * return immediately.
+     */
+    public void nextPeriod() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	ThreadState state = getThreadState(KThread.currentThread());
+	Lib.assertTrue(state.period > 0);
+
+	long time = Machine.timer().getTime();
+	state.charge(time);
+	state.checkMiss(time);
+
+	long release = state.jobDeadline;
+	state.startJob(release);
+
+	if (release > time)
+	    ThreadedKernel.alarm.waitUntil(release - time);
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Charge the current thread for the time it has run, and decide whether
+     * to preempt it. A real-time thread that has used up its budget is
+     * preempted, and its deadline is postponed by one period. Otherwise the
+     * current thread is preempted if a thread with an earlier deadline is
+     * ready, or if it is a background thread and any other thread is ready.
+     *
+     * @param	thread	the thread that was running when the timer interrupt
+     *			occurred.
+     * @return	<tt>true</tt> if the current thread should yield.
+     */
+    public boolean timerInterrupt(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	ThreadState state = getThreadState(thread);
+
+	long time = Machine.timer().getTime();
+	state.charge(time);
+
+	if (state.period > 0) {
+	    state.checkMiss(time);
+
+	    if (state.used >= state.budget) {
+		state.setSchedulingDeadline(state.deadline + state.period);
+		state.used = 0;
+		return true;
+	    }
+	}
+
+	ThreadState next = readyQueue.pickNextThread();
+
+	return next != null &&
+	    (state.period == 0 || next.deadline < state.deadline);
+    }
+
+    /**
+     * Return the scheduling state of the specified thread.
+     *
+     * @param	thread	the thread whose scheduling state to return.
+     * @return	the scheduling state of the specified thread.
+     */
+    protected ThreadState getThreadState(KThread thread) {
+	if (thread.schedulingState == null)
+	    thread.schedulingState = new ThreadState(thread);
+
+	return (ThreadState) thread.schedulingState;
+    }
+
+    /**
+     * A <tt>ThreadQueue</tt> that keeps its waiting threads in a binary heap
+     * ordered by deadline, and among threads with the same deadline, by the
+     * time they started waiting.
+     */
+    protected class DeadlineQueue extends ThreadQueue {
+	DeadlineQueue(boolean processor) {
+	    this.processor = processor;
+	}
+
+	public void waitForAccess(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    ThreadState state = getThreadState(thread);
+	    Lib.assertTrue(state.waitingOn == null);
+
+	    state.enqueueTime = numEnqueued++;
+
+	    heap.add(state);
+	    state.waitingOn = this;
+	}
+
+	public void acquire(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    setHolder(getThreadState(thread));
+	}
+
+	public KThread nextThread() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    ThreadState next = pickNextThread();
+	    if (next != null)
+		remove(0);
+
+	    setHolder(next);
+
+	    return (next == null) ? null : next.thread;
+	}
+
+	public boolean remove(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    ThreadState state = getThreadState(thread);
+	    if (state.waitingOn != this)
+		return false;
+
+	    remove(state.heapIndex);
+	    return true;
+	}
+
+	/**
+	 * Return the next thread that <tt>nextThread()</tt> would return,
+	 * without modifying the state of this queue.
+	 *
+	 * @return	the next thread that <tt>nextThread()</tt> would
+	 *		return.
+	 */
+	protected ThreadState pickNextThread() {
+	    return heap.peek();
+	}
+
+	public void print() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    // print in the order the threads will be dequeued
+	    for (ThreadState state : heap.inOrder()) {
+		System.out.print(" " + state.thread + "(" +
+				 state.deadline + ")");
+	    }
+	}
+
+	/**
+	 * Give this queue to the specified thread. For the processor queue,
+	 * this charges the previous holder for the time it ran.
+	 */
+	private void setHolder(ThreadState state) {
+	    if (processor && holder != state) {
+		long time = Machine.timer().getTime();
+
+		if (holder != null)
+		    holder.charge(time);
+		if (state != null)
+		    state.runStart = time;
+	    }
+
+	    holder = state;
+	}
+
+	void remove(int index) {
+	    heap.remove(index).waitingOn = null;
+	}
+
+	/**
+	 * Restore the heap order after the deadline of the specified waiting
+	 * thread has changed.
+	 */
+	void reposition(ThreadState state) {
+	    heap.reposition(state);
+	}
+
+	/** <tt>true</tt> if this is the queue for the processor. */
+	private boolean processor;
+
+	private ThreadState holder = null;
+	private IndexedHeap<ThreadState> heap = new IndexedHeap<ThreadState>();
+    }
+
+    /**
+     * The scheduling state of a thread: its period and budget, the deadline
+     * of its current job, and the processor time it has used in the current
+     * period.
+     *
+     * @see	nachos.threads.KThread#schedulingState
+     */
+    protected class ThreadState extends IndexedHeap.Element<ThreadState> {
+	/**
+	 * Allocate a new <tt>ThreadState</tt> object and associate it with the
+	 * specified thread. The thread starts as a background thread.
+	 *
+	 * @param	thread	the thread this state belongs to.
+	 */
+	public ThreadState(KThread thread) {
+	    this.thread = thread;
+	}
+
+	/**
+	 * Start a new job, released at the specified time.
+	 */
+	void startJob(long release) {
+	    jobDeadline = (period == 0) ? Long.MAX_VALUE : release + period;
+	    used = 0;
+	    missed = false;
+
+	    setSchedulingDeadline(jobDeadline);
+	}
+
+	void setSchedulingDeadline(long deadline) {
+	    this.deadline = deadline;
+
+	    if (waitingOn != null)
+		waitingOn.reposition(this);
+	}
+
+	/**
+	 * Charge the associated thread for the time it has run since it was
+	 * last charged, if it is running.
+	 */
+	void charge(long time) {
+	    if (readyQueue == null || readyQueue.holder != this)
+		return;
+
+	    used += time - runStart;
+	    runStart = time;
+	}
+
+	/**
+	 * Count a deadline miss if the current job is not yet done at the
+	 * specified time, past its deadline. Each job is counted at most
+	 * once.
+	 */
+	void checkMiss(long time) {
+	    if (period > 0 && !missed && time > jobDeadline) {
+		missed = true;
+		Machine.autoGrader().missedDeadline(thread);
+	    }
+	}
+
+	/**
+	 * Return <tt>true</tt> if the associated thread should be dequeued
+	 * before the specified thread.
+	 */
+	boolean before(ThreadState state) {
+	    if (deadline != state.deadline)
+		return deadline < state.deadline;
+
+	    return enqueueTime < state.enqueueTime;
+	}
+
+	/** The thread with which this object is associated. */
+	protected KThread thread;
+	/** The period of the associated thread, or 0 if it has none. */
+	protected long period = 0;
+	/** The processor time the associated thread may use per period. */
+	protected long budget = 0;
+	/** The deadline of the current job. */
+	protected long jobDeadline = Long.MAX_VALUE;
+	/**
+	 * The deadline the associated thread is scheduled by. This is later
+	 * than <tt>jobDeadline</tt> if the thread has overrun its budget.
+	 */
+	protected long deadline = Long.MAX_VALUE;
+	/** The processor time used in the current period. */
+	protected long used = 0;
+
+	long runStart;
+	boolean missed = false;
+
+	DeadlineQueue waitingOn = null;
+	long enqueueTime;
+    }
+
+    private DeadlineQueue readyQueue = null;
+
+    private static long numEnqueued = 0;
+}
@@ -0,0 +1,168 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.ArrayList;
+
+/**
+ * A binary heap whose elements record their own position in it, so that any
+ * element can be removed, or moved after its key changes, in
+ * <i>O(log n)</i> time without searching for it. The heap is ordered by the
+ * <tt>before()</tt> method of its elements. An element may be in at most one
+ * heap at a time.
+ *
+ * <p>
+ * The thread queues of the priority, stride and deadline schedulers keep
+ * their waiting threads in an <tt>IndexedHeap</tt>.
+ */
+class IndexedHeap<E extends IndexedHeap.Element<E>> {
+    /**
+     * Allocate a new, empty heap.
+     */
+    IndexedHeap() {
+    }
+
+    /**
+     * An element of an <tt>IndexedHeap</tt>.
+     */
+    static abstract class Element<E> {
+	/**
+	 * Return <tt>true</tt> if this element should leave the heap before
+	 * the specified element.
+	 *
+	 * @param	element	the element to compare with.
+	 * @return	<tt>true</tt> if this element comes first.
+	 */
+	abstract boolean before(E element);
+
+	/** The position of this element in its heap, or -1 if it has none. */
+	int heapIndex = -1;
+    }
+
+    /**
+     * Return the number of elements in this heap.
+     *
+     * @return	the number of elements.
+     */
+    int size() {
+	return heap.size();
+    }
+
+    /**
+     * Return the first element of this heap, without removing it.
+     *
+     * @return	the first element, or <tt>null</tt> if the heap is empty.
+     */
+    E peek() {
+	return heap.isEmpty() ? null : heap.get(0);
+    }
+
+    /**
+     * Add an element to this heap.
+     *
+     * @param	element	the element to add.
+     */
+    void add(E element) {
+	Lib.assertTrue(element.heapIndex == -1);
+
+	element.heapIndex = heap.size();
+	heap.add(element);
+	siftUp(element.heapIndex);
+    }
+
+    /**
+     * Remove the element at the specified position.
+     *
+     * @param	index	the <tt>heapIndex</tt> of the element to remove.
+     * @return	the removed element.
+     */
+    E remove(int index) {
+	E element = heap.get(index);
+	E moved = heap.remove(heap.size()-1);
+
+	if (moved != element) {
+	    heap.set(index, moved);
+	    moved.heapIndex = index;
+	    reposition(moved);
+	}
+
+	element.heapIndex = -1;
+	return element;
+    }
+
+    /**
+     * Restore the heap order after the key of the specified element has
+     * changed.
+     *
+     * @param	element	the element whose key changed.
+     */
+    void reposition(E element) {
+	int index = element.heapIndex;
+
+	siftDown(index);
+	if (element.heapIndex == index)
+	    siftUp(index);
+    }
+
+    /**
+     * Return the elements of this heap in the order they would be removed,
+     * for printing.
+     *
+     * @return	a sorted copy of the elements.
+     */
+    ArrayList<E> inOrder() {
+	ArrayList<E> order = new ArrayList<E>(heap);
+
+	for (int i=1; i<order.size(); i++) {
+	    E element = order.get(i);
+	    int j;
+	    for (j=i; j>0 && element.before(order.get(j-1)); j--)
+		order.set(j, order.get(j-1));
+	    order.set(j, element);
+	}
+
+	return order;
+    }
+
+    private void siftUp(int index) {
+	E element = heap.get(index);
+
+	while (index > 0) {
+	    int parent = (index-1)/2;
+	    if (!element.before(heap.get(parent)))
+		break;
+
+	    move(heap.get(parent), index);
+	    index = parent;
+	}
+
+	move(element, index);
+    }
+
+    private void siftDown(int index) {
+	E element = heap.get(index);
+	int size = heap.size();
+
+	while (true) {
+	    int child = 2*index+1;
+	    if (child >= size)
+		break;
+	    if (child+1 < size && heap.get(child+1).before(heap.get(child)))
+		child++;
+	    if (!heap.get(child).before(element))
+		break;
+
+	    move(heap.get(child), index);
+	    index = child;
+	}
+
+	move(element, index);
+    }
+
+    private void move(E element, int index) {
+	heap.set(index, element);
+	element.heapIndex = index;
+    }
+
+    private ArrayList<E> heap = new ArrayList<E>();
+}
@@ -37,6 +37,16 @@ public class KThread {
 	Lib.assertTrue(currentThread != null);
 	return currentThread;
     }
+
+    /**
+     * Return the number of threads waiting in the ready queue, not counting
+     * the idle thread.
+     *
+     * @return	the number of ready threads.
+     */
+    static int numReady() {
+	return numReady;
+    }
     
     /**
      * Allocate a new <tt>KThread</tt>. If this is the first <tt>KThread</tt>,
@@ -49,7 +59,7 @@ public class KThread {
 	}	    
 	else {
             //////System.out.println("\nKThread_constructor (currentThread == null)  at 49.\n");
-	    readyQueue = ThreadedKernel.scheduler.newThreadQueue(false);
+	    readyQueue = ThreadedKernel.scheduler.newReadyQueue();
 	    readyQueue.acquire(this);	    
 
 	    currentThread = this;
@@ -61,6 +71,11 @@ public class KThread {
 	    createIdleThread();
             //////System.out.println("\nKThread-contructor after createIdleThread at 62.\n");
 	}
+
+	// hold the join queue before anyone can join, even before fork()
+	boolean intStatus = Machine.interrupt().disable();
+	joinQueue.acquire(this);
+	Machine.interrupt().restore(intStatus);
     }
 
     /**
@@ -149,7 +164,7 @@ public class KThread {
 		  "Forking thread: " + toString() + " Runnable: " + target);
 
 	boolean intStatus = Machine.interrupt().disable();
-       
+
 	tcb.start(new Runnable() {
 		public void run() {
                     //////System.out.println("KThread_fork after run at 150.\n");
@@ -204,11 +219,10 @@ public class KThread {
 
 
 	currentThread.status = statusFinished;
-        
-        if(currentThread.callingThread != null)
-        {
-            currentThread.callingThread.ready();
-        }
+
+	KThread thread;
+	while ((thread = currentThread.joinQueue.nextThread()) != null)
+	    thread.ready();
 	
 	sleep();
     }
@@ -280,39 +294,34 @@ public class KThread {
 	Lib.assertTrue(status != statusReady);
 	
 	status = statusReady;
-	if (this != idleThread)
+	if (this != idleThread) {
 	    readyQueue.waitForAccess(this);
+	    numReady++;
+	}
 	
 	Machine.autoGrader().readyThread(this);
     }
 
     /**
      * Waits for this thread to finish. If this thread is already finished,
-     * return immediately. This method must only be called once; the second
-     * call is not guaranteed to return. This thread must not be the current
-     * thread.
+     * return immediately. Any number of threads may join this thread; all of
+     * them are woken when it finishes. While they wait, the joining threads
+     * donate their priority to this thread. This thread must not be the
+     * current thread.
      */
     public void join() {
 	Lib.debug(dbgThread, "Joining to thread: " + toString());
 
 	Lib.assertTrue(this != currentThread);
-        
-        if(this.status == statusFinished) 
-        {
-            return;
-        }
-        
-        boolean s = Machine.interrupt().disable();
-        
-        if(!joined)
-        {
-            callingThread = currentThread;
-            joined = true;
-            sleep();
-        }
-        
-        //Machine.interrupt().enable();
-        Machine.interrupt().restore(s);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (status != statusFinished) {
+	    joinQueue.waitForAccess(currentThread);
+	    sleep();
+	}
+
+	Machine.interrupt().restore(intStatus);
     }
 
     /**
@@ -327,11 +336,25 @@ public class KThread {
     private static void createIdleThread() {
         //////System.out.println("1st line of KThread_createIdleThread at 305\n");
 	Lib.assertTrue(idleThread == null);
+
+	idleFastForward =
+	    Config.getBoolean("ThreadedKernel.idleFastForward", false);
 	
 	idleThread = new KThread(new Runnable() {
 	    public void run() { 
                 //////System.out.println("KThread_createIdleThread_run at 303 before while.\n");
-                while (true) yield(); 
+                while (true) {
+		    // nothing can run until an interrupt wakes someone up, so
+		    // skip straight to the next one
+		    if (idleFastForward) {
+			boolean intStatus = Machine.interrupt().disable();
+			if (numReady == 0)
+			    Machine.interrupt().idle();
+			Machine.interrupt().restore(intStatus);
+		    }
+
+		    yield();
+		}
             }
 	});
 	idleThread.setName("idle");
@@ -351,6 +374,8 @@ public class KThread {
 	KThread nextThread = readyQueue.nextThread();
 	if (nextThread == null)
 	    nextThread = idleThread;
+	else
+	    numReady--;
 
 	nextThread.run();
     }
@@ -385,6 +410,7 @@ public class KThread {
 	Lib.debug(dbgThread, "Switching from: " + currentThread.toString()
 		  + " to: " + toString());
 
+	sliceUsed = 0;
 	currentThread = this;
 
 	tcb.contextSwitch();
@@ -499,6 +525,37 @@ public class KThread {
      */
     public Object schedulingState = null;
 
+    /**
+     * The preemption quantum of this thread in timer interrupts, or 0 to use
+     * the scheduler's quantum.
+     *
+     * @see	nachos.threads.Scheduler#setQuantum
+     */
+    int quantum = 0;
+
+    /**
+     * The number of timer interrupts this thread has run for since it was
+     * last dispatched.
+     */
+    int sliceUsed = 0;
+
+    /**
+     * The entry of this thread in the alarm's sleeping threads, if it is
+     * sleeping in <tt>Alarm.waitUntil()</tt>.
+     */
+    Alarm.Pair alarmPair = null;
+
+    /**
+     * The links of this thread in the round-robin queue it is waiting on, so
+     * that waiting and waking allocate nothing. A thread waits on at most one
+     * queue at a time.
+     *
+     * @see	nachos.threads.RoundRobinScheduler
+     */
+    ThreadQueue queuedOn = null;
+    KThread queueNext = null;
+    KThread queuePrev = null;
+
     private static final int statusNew = 0;
     private static final int statusReady = 1;
     private static final int statusRunning = 2;
@@ -527,7 +584,18 @@ public class KThread {
     private static KThread currentThread = null;
     private static KThread toBeDestroyed = null;
     private static KThread idleThread = null;
+    /** Number of threads in the ready queue. */
+    private static int numReady = 0;
+    /**
+     * <tt>true</tt> if the idle thread advances the clock straight to the
+     * next interrupt, instead of spinning until it is due.
+     */
+    private static boolean idleFastForward = false;
     
-    private KThread callingThread = null;
-    private boolean joined = false;
+    /**
+     * The threads waiting for this thread to finish. This thread holds the
+     * queue from the time it is created, so joining threads donate to it.
+     */
+    private ThreadQueue joinQueue =
+	ThreadedKernel.scheduler.newThreadQueue(true);
 }
@@ -35,14 +35,17 @@ public class Lock {
 
 	boolean intStatus = Machine.interrupt().disable();
 	KThread thread = KThread.currentThread();
+	long startTime = (profile != null) ? Machine.timer().getTime() : 0;
 
 	if (lockHolder != null) {
 	    waitQueue.waitForAccess(thread);
 	    KThread.sleep();
+	    profileAcquire(startTime, true);
 	}
 	else {
 	    waitQueue.acquire(thread);
 	    lockHolder = thread;
+	    profileAcquire(startTime, false);
 	}
 
 	Lib.assertTrue(lockHolder == thread);
@@ -50,6 +53,39 @@ public class Lock {
 	Machine.interrupt().restore(intStatus);
     }
 
+    /**
+     * Atomically acquire this lock, waiting at most <i>ticks</i> clock ticks
+     * for it to become free. If <i>ticks</i> is not positive, do not wait at
+     * all. The current thread must not already hold this lock.
+     *
+     * @param	ticks	the maximum number of clock ticks to wait.
+     * @return	<tt>true</tt> if the lock was acquired, or <tt>false</tt> if
+     *		the time ran out.
+     */
+    public boolean tryAcquire(long ticks) {
+	Lib.assertTrue(!isHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+	KThread thread = KThread.currentThread();
+	long startTime = (profile != null) ? Machine.timer().getTime() : 0;
+
+	if (lockHolder == null) {
+	    waitQueue.acquire(thread);
+	    lockHolder = thread;
+	    profileAcquire(startTime, false);
+	}
+	else if (ticks > 0) {
+	    waitQueue.waitForAccess(thread);
+	    if (ThreadedKernel.alarm.sleepOn(waitQueue, ticks))
+		profileAcquire(startTime, true);
+	}
+
+	boolean acquired = (lockHolder == thread);
+
+	Machine.interrupt().restore(intStatus);
+	return acquired;
+    }
+
     /**
      * Atomically release this lock, allowing other threads to acquire it.
      */
@@ -58,6 +94,9 @@ public class Lock {
 
 	boolean intStatus = Machine.interrupt().disable();
 
+	if (profile != null)
+	    profile.released(Machine.timer().getTime() - acquireTime);
+
 	if ((lockHolder = waitQueue.nextThread()) != null)
 	    lockHolder.ready();
 	
@@ -73,7 +112,22 @@ public class Lock {
 	return (lockHolder == KThread.currentThread());
     }
 
+    /**
+     * Record an acquire of this lock by the current thread with the
+     * contention profiler, if it is enabled.
+     */
+    private void profileAcquire(long startTime, boolean contended) {
+	if (profile != null) {
+	    acquireTime = Machine.timer().getTime();
+	    profile.acquired(acquireTime - startTime, contended);
+	}
+    }
+
     private KThread lockHolder = null;
     private ThreadQueue waitQueue =
 	ThreadedKernel.scheduler.newThreadQueue(true);
+
+    private ContentionProfiler.Record profile =
+	ContentionProfiler.newRecord("Lock");
+    private long acquireTime;
 }
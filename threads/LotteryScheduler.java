@@ -2,9 +2,7 @@ package nachos.threads;
 
 import nachos.machine.*;
 
-import java.util.TreeSet;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Arrays;
 
 /**
  * A scheduler that chooses threads using a lottery.
@@ -32,7 +30,7 @@ public class LotteryScheduler extends PriorityScheduler {
      */
     public LotteryScheduler() {
     }
-    
+
     /**
      * Allocate a new lottery thread queue.
      *
@@ -42,7 +40,352 @@ public class LotteryScheduler extends PriorityScheduler {
      * @return	a new lottery thread queue.
      */
     public ThreadQueue newThreadQueue(boolean transferPriority) {
-	// implement me
-	return null;
+	return new LotteryQueue(transferPriority, false);
+    }
+
+    /**
+     * Allocate a new lottery queue for the processor. Threads that block
+     * before their quantum expires are given compensation tickets when they
+     * next wait on this queue.
+     *
+     * @return	a new ready queue.
+     */
+    public ThreadQueue newReadyQueue() {
+	return new LotteryQueue(false, true);
+    }
+
+    public void setPriority(KThread thread, int priority) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	Lib.assertTrue(priority >= priorityMinimum &&
+		   priority <= priorityMaximum);
+
+	getThreadState(thread).setPriority(priority);
+    }
+
+    public boolean increasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+
+	int priority = getPriority(thread);
+	if (priority == priorityMaximum) {
+	    Machine.interrupt().restore(intStatus);
+	    return false;
+	}
+
+	setPriority(thread, priority+1);
+
+	Machine.interrupt().restore(intStatus);
+	return true;
+    }
+
+    public boolean decreasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+
+	int priority = getPriority(thread);
+	if (priority == priorityMinimum) {
+	    Machine.interrupt().restore(intStatus);
+	    return false;
+	}
+
+	setPriority(thread, priority-1);
+
+	Machine.interrupt().restore(intStatus);
+	return true;
     }
+
+    /**
+     * The default number of tickets for a new thread.
+     */
+    public static final int priorityDefault = 1;
+    /**
+     * The minimum number of tickets that a thread can have.
+     */
+    public static final int priorityMinimum = 1;
+    /**
+     * The maximum number of tickets that a thread can have.
+     */
+    public static final int priorityMaximum = Integer.MAX_VALUE;
+
+    /**
+     * Return the scheduling state of the specified thread.
+     *
+     * @param	thread	the thread whose scheduling state to return.
+     * @return	the scheduling state of the specified thread.
+     */
+    protected ThreadState getThreadState(KThread thread) {
+	if (thread.schedulingState == null)
+	    thread.schedulingState = new LotteryThreadState(thread);
+
+	return (ThreadState) thread.schedulingState;
+    }
+
+    /**
+     * A <tt>ThreadQueue</tt> that holds a lottery among its waiting threads.
+     *
+     * <p>
+     * Each waiting thread occupies a slot, and the tickets of the slots are
+     * kept in a Fenwick tree. Adding or removing a thread, changing its
+     * tickets, and drawing the winning ticket all take <i>O(log n)</i>
+     * time. Free slots are chained through <tt>nextFree</tt>.
+     */
+    protected class LotteryQueue extends PriorityQueue {
+	LotteryQueue(boolean transferPriority, boolean processor) {
+	    super(transferPriority);
+	    this.processor = processor;
+
+	    grow(initialSlots);
+	}
+
+	public void waitForAccess(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    LotteryThreadState state =
+		(LotteryThreadState) getThreadState(thread);
+
+	    // a thread that waits while not running must have blocked
+	    if (processor && state != holder)
+		state.compensate();
+
+	    state.waitForAccess(this);
+	}
+
+	/**
+	 * Return the thread that wins the lottery. The winner is drawn once,
+	 * and is returned again until this queue changes.
+	 *
+	 * @return	the next thread that <tt>nextThread()</tt> would
+	 *		return.
+	 */
+	protected ThreadState pickNextThread() {
+	    if (size == 0)
+		return null;
+
+	    if (winner == null) {
+		long ticket = Math.min((long) (Lib.random() * total), total-1);
+		winner = slots[find(ticket)];
+	    }
+
+	    return winner;
+	}
+
+	/**
+	 * Return the total number of tickets held by the waiting threads,
+	 * which is the number of tickets this queue transfers to its holder.
+	 *
+	 * @return	the number of tickets this queue transfers.
+	 */
+	protected int getDonatedPriority() {
+	    return (int) Math.min(total, Integer.MAX_VALUE);
+	}
+
+	public void print() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    for (int i=0; i<slots.length; i++) {
+		if (slots[i] != null) {
+		    System.out.print(" " + slots[i].thread + "(" +
+				     weights[i] + ")");
+		}
+	    }
+	}
+
+	void setHolder(ThreadState state) {
+	    if (processor) {
+		long time = Machine.timer().getTime();
+
+		if (holder != null && holder != state) {
+		    LotteryThreadState last = (LotteryThreadState) holder;
+		    last.lastRun = time - last.runStart;
+		}
+
+		// a thread that wins again starts a new quantum
+		if (state != null) {
+		    LotteryThreadState next = (LotteryThreadState) state;
+		    next.runStart = time;
+		    next.lastRun = -1;
+		    next.setCompensation(0);
+		}
+	    }
+
+	    super.setHolder(state);
+	}
+
+	void add(ThreadState state) {
+	    if (freeSlot == -1)
+		grow(2*slots.length);
+
+	    int slot = freeSlot;
+	    freeSlot = nextFree[slot];
+
+	    slots[slot] = state;
+	    state.heapIndex = slot;
+	    state.waitingOn = this;
+	    size++;
+
+	    setWeight(slot, state.effectivePriority);
+	}
+
+	void remove(int slot) {
+	    ThreadState state = slots[slot];
+
+	    setWeight(slot, 0);
+
+	    slots[slot] = null;
+	    nextFree[slot] = freeSlot;
+	    freeSlot = slot;
+	    size--;
+
+	    state.heapIndex = -1;
+	    state.waitingOn = null;
+	}
+
+	void reposition(ThreadState state) {
+	    setWeight(state.heapIndex, state.effectivePriority);
+	}
+
+	private void setWeight(int slot, long weight) {
+	    long delta = weight - weights[slot];
+	    if (delta == 0)
+		return;
+
+	    weights[slot] = weight;
+	    total += delta;
+	    winner = null;
+
+	    for (int i=slot+1; i<tree.length; i+=i&-i)
+		tree[i] += delta;
+	}
+
+	/**
+	 * Return the slot holding the specified ticket, where the tickets are
+	 * numbered from 0 in slot order.
+	 */
+	private int find(long ticket) {
+	    int index = 0;
+
+	    for (int step=Integer.highestOneBit(slots.length); step>0;
+		 step>>=1) {
+		if (index+step < tree.length && tree[index+step] <= ticket) {
+		    index += step;
+		    ticket -= tree[index];
+		}
+	    }
+
+	    return index;
+	}
+
+	/**
+	 * Enlarge the slot arrays to the specified size, add the new slots to
+	 * the free list, and rebuild the Fenwick tree.
+	 */
+	private void grow(int newSize) {
+	    int oldSize = slots.length;
+
+	    slots = Arrays.copyOf(slots, newSize);
+	    weights = Arrays.copyOf(weights, newSize);
+	    nextFree = Arrays.copyOf(nextFree, newSize);
+
+	    for (int i=newSize-1; i>=oldSize; i--) {
+		nextFree[i] = freeSlot;
+		freeSlot = i;
+	    }
+
+	    tree = new long[newSize+1];
+	    for (int i=1; i<=newSize; i++) {
+		tree[i] += weights[i-1];
+
+		int parent = i + (i&-i);
+		if (parent <= newSize)
+		    tree[parent] += tree[i];
+	    }
+	}
+
+	/** <tt>true</tt> if this is the queue for the processor. */
+	private boolean processor;
+
+	private ThreadState[] slots = new ThreadState[0];
+	private long[] weights = new long[0];
+	private int[] nextFree = new int[0];
+	private long[] tree;
+	private int freeSlot = -1;
+	private int size = 0;
+	private long total = 0;
+	private ThreadState winner = null;
+    }
+
+    /**
+     * The scheduling state of a thread in a lottery scheduler. The priority
+     * of the thread is its number of tickets, and its effective priority is
+     * the sum of its own tickets, its compensation tickets, and the tickets
+     * transferred to it.
+     */
+    protected class LotteryThreadState extends ThreadState {
+	/**
+	 * Allocate a new <tt>LotteryThreadState</tt> object and associate it
+	 * with the specified thread.
+	 *
+	 * @param	thread	the thread this state belongs to.
+	 */
+	public LotteryThreadState(KThread thread) {
+	    super(thread);
+	}
+
+	protected int computeEffectivePriority() {
+	    long effective = (long) priority + compensation;
+	    for (PriorityQueue queue : held)
+		effective += queue.getDonatedPriority();
+
+	    return (int) Math.min(effective, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Give the associated thread compensation tickets if it blocked
+	 * after using only part of its quantum. A thread that used
+	 * <i>f</i> of its quantum has its tickets inflated by 1/<i>f</i>
+	 * until it next runs. A thread with no quantum, because no other
+	 * thread is ready, is not compensated.
+	 */
+	void compensate() {
+	    int numTimerInterrupts = getQuantum(thread);
+	    if (numTimerInterrupts == Integer.MAX_VALUE)
+		return;
+
+	    long quantum = (long) numTimerInterrupts * Stats.TimerTicks;
+	    if (lastRun < 0 || lastRun >= quantum)
+		return;
+
+	    long used = Math.max(lastRun, 1);
+	    long inflated = (long) priority * quantum / used;
+
+	    setCompensation((int) Math.min(inflated - priority,
+					   Integer.MAX_VALUE));
+	    lastRun = -1;
+	}
+
+	void setCompensation(int compensation) {
+	    if (this.compensation == compensation)
+		return;
+
+	    this.compensation = compensation;
+
+	    updateEffectivePriority();
+	}
+
+	/** The compensation tickets of the associated thread. */
+	protected int compensation;
+
+	/** The time the associated thread last started running. */
+	long runStart;
+	/**
+	 * The number of ticks the associated thread ran before it last gave
+	 * up the processor, or -1 if it has not done so since it last ran.
+	 */
+	long lastRun = -1;
+    }
+
+    private static final int initialSlots = 8;
 }
@@ -0,0 +1,353 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+/**
+ * A multi-level feedback queue scheduler. Threads that use up their quantum
+ * are moved to lower levels with longer quanta, while threads that block
+ * before using it up (waiting on a semaphore, a lock, or console I/O) are
+ * moved back up. A thread at a higher level always runs before one at a lower
+ * level, and threads at the same level are run round-robin. Interactive
+ * threads therefore stay at the top levels with low latency, and CPU-bound
+ * threads sink to the bottom.
+ *
+ * <p>
+ * Quanta are counted in timer interrupts. The quantum at level 0, the highest
+ * level, is the quantum <tt>Scheduler.getQuantum()</tt> gives the thread, so
+ * it follows <tt>MultiLevelFeedbackScheduler.quantum</tt>,
+ * <tt>setQuantum()</tt> and adaptive mode. Each lower level has twice the
+ * quantum of the level above it. To prevent starvation, every
+ * <tt>MultiLevelFeedbackScheduler.boostInterval</tt> timer interrupts all
+ * threads are moved back to level 0; a thread that is blocked during the boost
+ * is moved when it next becomes ready.
+ *
+ * <p>
+ * Queues other than the ready queue are FIFO. The priority of a thread is
+ * its level counted from the bottom, so that the highest level has the
+ * highest priority.
+ */
+public class MultiLevelFeedbackScheduler extends Scheduler {
+    /**
+     * Allocate a new multi-level feedback queue scheduler.
+     */
+    public MultiLevelFeedbackScheduler() {
+	levels = Config.getInteger("MultiLevelFeedbackScheduler.levels", 3);
+	boostInterval =
+	    Config.getInteger("MultiLevelFeedbackScheduler.boostInterval", 50);
+
+	Lib.assertTrue(levels >= 1 && levels <= 16);
+	Lib.assertTrue(boostInterval >= 1);
+    }
+
+    /**
+     * Allocate a new FIFO thread queue.
+     *
+     * @param	transferPriority	ignored.
+     * @return	a new FIFO thread queue.
+     */
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+	return new FeedbackQueue(1);
+    }
+
+    /**
+     * Allocate the multi-level queue for the processor.
+     *
+     * @return	a new ready queue.
+     */
+    public ThreadQueue newReadyQueue() {
+	Lib.assertTrue(readyQueue == null);
+
+	readyQueue = new FeedbackQueue(levels);
+	return readyQueue;
+    }
+
+    public int getPriority(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	return levels-1 - getThreadState(thread).level;
+    }
+
+    public int getEffectivePriority(KThread thread) {
+	return getPriority(thread);
+    }
+
+    public void setPriority(KThread thread, int priority) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	Lib.assertTrue(priority >= 0 && priority < levels);
+
+	getThreadState(thread).setLevel(levels-1 - priority);
+    }
+
+    public boolean increasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+
+	int priority = getPriority(thread);
+	if (priority == levels-1) {
+	    Machine.interrupt().restore(intStatus);
+	    return false;
+	}
+
+	setPriority(thread, priority+1);
+
+	Machine.interrupt().restore(intStatus);
+	return true;
+    }
+
+    public boolean decreasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+
+	int priority = getPriority(thread);
+	if (priority == 0) {
+	    Machine.interrupt().restore(intStatus);
+	    return false;
+	}
+
+	setPriority(thread, priority-1);
+
+	Machine.interrupt().restore(intStatus);
+	return true;
+    }
+
+    /**
+     * Charge the current thread for one timer interrupt. The thread is
+     * preempted and demoted if it has used up the quantum of its level, and
+     * is preempted if a thread at a higher level is ready. Every
+     * <tt>boostInterval</tt> interrupts, all threads are moved to level 0.
+     *
+     * @param	thread	the thread that was running when the timer interrupt
+     *			occurred.
+     * @return	<tt>true</tt> if the current thread should yield.
+     */
+    public boolean timerInterrupt(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	ThreadState state = getThreadState(thread);
+
+	if (++numTimerInterrupts % boostInterval == 0) {
+	    numBoosts++;
+	    readyQueue.boost();
+	    state.setLevel(0);
+	    return true;
+	}
+
+	if (++state.used >= getQuantum(thread)) {
+	    state.setLevel(Math.min(state.level+1, levels-1));
+	    return true;
+	}
+
+	return readyQueue.highestLevel() < state.level;
+    }
+
+    /**
+     * Return the quantum of the specified thread at its current level: the
+     * quantum the thread would have at level 0, doubled for each level below
+     * it.
+     *
+     * @param	thread	the thread to get the quantum of.
+     * @return	the thread's quantum, in timer interrupts.
+     */
+    public int getQuantum(KThread thread) {
+	int quantum = super.getQuantum(thread);
+	int level = getThreadState(thread).level;
+
+	if (quantum > (Integer.MAX_VALUE >> level))
+	    return Integer.MAX_VALUE;
+
+	return quantum << level;
+    }
+
+    /**
+     * Return the scheduling state of the specified thread.
+     *
+     * @param	thread	the thread whose scheduling state to return.
+     * @return	the scheduling state of the specified thread.
+     */
+    protected ThreadState getThreadState(KThread thread) {
+	if (thread.schedulingState == null)
+	    thread.schedulingState = new ThreadState(thread);
+
+	return (ThreadState) thread.schedulingState;
+    }
+
+    /**
+     * A <tt>ThreadQueue</tt> with a FIFO list for each level. The next thread
+     * to be dequeued is the first thread of the highest nonempty level.
+     */
+    protected class FeedbackQueue extends ThreadQueue {
+	FeedbackQueue(int numLevels) {
+	    lists = new ArrayList<LinkedList<ThreadState>>(numLevels);
+	    for (int i=0; i<numLevels; i++)
+		lists.add(new LinkedList<ThreadState>());
+	}
+
+	public void waitForAccess(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    ThreadState state = getThreadState(thread);
+
+	    if (this == readyQueue) {
+		// a thread that was blocked during a boost missed it
+		if (state.boostsSeen != numBoosts)
+		    state.reset(0);
+		// a thread that waits while not running must have blocked
+		else if (state != holder && state.started)
+		    state.setLevel(Math.max(state.level-1, 0));
+	    }
+
+	    lists.get(levelOf(state)).add(state);
+	    state.waitingOn = this;
+	}
+
+	public void acquire(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    holder = getThreadState(thread);
+	    holder.started = true;
+	}
+
+	public KThread nextThread() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    int level = highestLevel();
+	    if (level == lists.size()) {
+		holder = null;
+		return null;
+	    }
+
+	    holder = lists.get(level).removeFirst();
+	    holder.waitingOn = null;
+	    holder.started = true;
+
+	    return holder.thread;
+	}
+
+	public boolean remove(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    ThreadState state = getThreadState(thread);
+	    if (state.waitingOn != this)
+		return false;
+
+	    lists.get(levelOf(state)).remove(state);
+	    state.waitingOn = null;
+	    return true;
+	}
+
+	/**
+	 * Return the highest level that has a waiting thread, or the number
+	 * of levels if no thread is waiting.
+	 */
+	int highestLevel() {
+	    int level = 0;
+	    while (level < lists.size() && lists.get(level).isEmpty())
+		level++;
+
+	    return level;
+	}
+
+	/**
+	 * Move every waiting thread to level 0 with a fresh quantum, keeping
+	 * the threads in the order they would otherwise have run.
+	 */
+	void boost() {
+	    for (ThreadState state : lists.get(0))
+		state.reset(0);
+
+	    for (int i=1; i<lists.size(); i++) {
+		for (ThreadState state : lists.get(i))
+		    state.reset(0);
+
+		lists.get(0).addAll(lists.get(i));
+		lists.get(i).clear();
+	    }
+	}
+
+	/**
+	 * Move a waiting thread to its new level.
+	 */
+	void move(ThreadState state, int oldLevel) {
+	    lists.get(oldLevel).remove(state);
+	    lists.get(levelOf(state)).add(state);
+	}
+
+	private int levelOf(ThreadState state) {
+	    return Math.min(state.level, lists.size()-1);
+	}
+
+	public void print() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    for (int i=0; i<lists.size(); i++) {
+		for (ThreadState state : lists.get(i))
+		    System.out.print(" " + state.thread + "(" + i + ")");
+	    }
+	}
+
+	private ArrayList<LinkedList<ThreadState>> lists;
+	private ThreadState holder = null;
+    }
+
+    /**
+     * The scheduling state of a thread: its level, and how many timer
+     * interrupts it has used of the quantum of that level.
+     */
+    protected class ThreadState {
+	/**
+	 * Allocate a new <tt>ThreadState</tt> object and associate it with the
+	 * specified thread. New threads start at level 0.
+	 *
+	 * @param	thread	the thread this state belongs to.
+	 */
+	public ThreadState(KThread thread) {
+	    this.thread = thread;
+	}
+
+	/**
+	 * Move the associated thread to the specified level, with a fresh
+	 * quantum.
+	 *
+	 * @param	level	the new level.
+	 */
+	void setLevel(int level) {
+	    int oldLevel = this.level;
+
+	    reset(level);
+
+	    if (waitingOn == readyQueue && level != oldLevel)
+		readyQueue.move(this, oldLevel);
+	}
+
+	void reset(int level) {
+	    this.level = level;
+	    used = 0;
+	    boostsSeen = numBoosts;
+	}
+
+	/** The thread with which this object is associated. */
+	protected KThread thread;
+	/** The level of the associated thread, where 0 is the highest. */
+	protected int level = 0;
+	/** The timer interrupts used of the current quantum. */
+	protected int used = 0;
+
+	/** The number of boosts that have been applied to this thread. */
+	int boostsSeen = 0;
+	/** <tt>true</tt> once the associated thread has run. */
+	boolean started = false;
+	/** The queue the associated thread is waiting on, if any. */
+	FeedbackQueue waitingOn = null;
+    }
+
+    private int levels, boostInterval;
+    private long numTimerInterrupts = 0;
+    private int numBoosts = 0;
+    private FeedbackQueue readyQueue = null;
+}
@@ -2,9 +2,7 @@ package nachos.threads;
 
 import nachos.machine.*;
 
-import java.util.TreeSet;
 import java.util.HashSet;
-import java.util.Iterator;
 
 /**
  * A scheduler that chooses threads based on their priorities.
@@ -72,8 +70,10 @@ public class PriorityScheduler extends Scheduler {
 	KThread thread = KThread.currentThread();
 
 	int priority = getPriority(thread);
-	if (priority == priorityMaximum)
+	if (priority == priorityMaximum) {
+	    Machine.interrupt().restore(intStatus);
 	    return false;
+	}
 
 	setPriority(thread, priority+1);
 
@@ -87,8 +87,10 @@ public class PriorityScheduler extends Scheduler {
 	KThread thread = KThread.currentThread();
 
 	int priority = getPriority(thread);
-	if (priority == priorityMinimum)
+	if (priority == priorityMinimum) {
+	    Machine.interrupt().restore(intStatus);
 	    return false;
+	}
 
 	setPriority(thread, priority-1);
 
@@ -124,6 +126,13 @@ public class PriorityScheduler extends Scheduler {
 
     /**
      * A <tt>ThreadQueue</tt> that sorts threads by priority.
+     *
+     * <p>
+     * The waiting threads are kept in a binary heap ordered by effective
+     * priority, and among threads of equal effective priority, by the time
+     * they started waiting. Each thread records its position in the heap, so
+     * a thread whose effective priority changes while it waits can be moved
+     * to its new position in <i>O(log n)</i> time.
      */
     protected class PriorityQueue extends ThreadQueue {
 	PriorityQueue(boolean transferPriority) {
@@ -142,8 +151,32 @@ public class PriorityScheduler extends Scheduler {
 
 	public KThread nextThread() {
 	    Lib.assertTrue(Machine.interrupt().disabled());
-	    // implement me
-	    return null;
+
+	    ThreadState next = pickNextThread();
+	    if (next == null) {
+		setHolder(null);
+		return null;
+	    }
+
+	    remove(next.heapIndex);
+	    next.acquire(this);
+
+	    return next.thread;
+	}
+
+	public boolean remove(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    ThreadState state = getThreadState(thread);
+	    if (state.waitingOn != this)
+		return false;
+
+	    remove(state.heapIndex);
+
+	    if (transferPriority && holder != null)
+		holder.updateEffectivePriority();
+
+	    return true;
 	}
 
 	/**
@@ -154,13 +187,71 @@ public class PriorityScheduler extends Scheduler {
 	 *		return.
 	 */
 	protected ThreadState pickNextThread() {
-	    // implement me
-	    return null;
+	    return heap.peek();
 	}
-	
+
+	/**
+	 * Return the highest effective priority of any thread waiting on this
+	 * queue, or <tt>priorityMinimum</tt> if the queue is empty. This is
+	 * the priority this queue donates to its holder.
+	 *
+	 * @return	the priority this queue donates to its holder.
+	 */
+	protected int getDonatedPriority() {
+	    if (heap.size() == 0)
+		return priorityMinimum;
+
+	    return heap.peek().effectivePriority;
+	}
+
 	public void print() {
 	    Lib.assertTrue(Machine.interrupt().disabled());
-	    // implement me (if you want)
+
+	    // print in the order the threads will be dequeued
+	    for (ThreadState state : heap.inOrder()) {
+		System.out.print(" " + state.thread + "(" +
+				 state.effectivePriority + ")");
+	    }
+	}
+
+	/**
+	 * Make the specified thread the holder of this queue, taking the
+	 * donation of this queue away from the previous holder.
+	 *
+	 * @param	state	the new holder, or <tt>null</tt>.
+	 */
+	void setHolder(ThreadState state) {
+	    if (holder == state)
+		return;
+
+	    if (holder != null && transferPriority) {
+		holder.held.remove(this);
+		holder.updateEffectivePriority();
+	    }
+
+	    holder = state;
+
+	    if (holder != null && transferPriority) {
+		holder.held.add(this);
+		holder.updateEffectivePriority();
+	    }
+	}
+
+	void add(ThreadState state) {
+	    heap.add(state);
+	    state.waitingOn = this;
+	}
+
+	void remove(int index) {
+	    heap.remove(index).waitingOn = null;
+	}
+
+	/**
+	 * Restore the heap order after the effective priority of the
+	 * specified waiting thread has changed.
+	 */
+	void reposition(ThreadState state) {
+	    heap.reposition(state);
 	}
 
 	/**
@@ -168,6 +259,11 @@ public class PriorityScheduler extends Scheduler {
 	 * threads to the owning thread.
 	 */
 	public boolean transferPriority;
+
+	/** The thread that currently holds this queue, if any. */
+	ThreadState holder = null;
+
+	private IndexedHeap<ThreadState> heap = new IndexedHeap<ThreadState>();
     }
 
     /**
@@ -175,9 +271,16 @@ public class PriorityScheduler extends Scheduler {
      * priority, its effective priority, any objects it owns, and the queue
      * it's waiting for, if any.
      *
+     * <p>
+     * The effective priority is cached, and is recomputed only when the
+     * thread's own priority or the donation of a queue it holds changes. A
+     * change is then passed on to the holder of the queue the thread waits
+     * on, and so on down the chain, stopping as soon as some thread's
+     * effective priority is unaffected.
+     *
      * @see	nachos.threads.KThread#schedulingState
      */
-    protected class ThreadState {
+    protected class ThreadState extends IndexedHeap.Element<ThreadState> {
 	/**
 	 * Allocate a new <tt>ThreadState</tt> object and associate it with the
 	 * specified thread.
@@ -186,7 +289,7 @@ public class PriorityScheduler extends Scheduler {
 	 */
 	public ThreadState(KThread thread) {
 	    this.thread = thread;
-	    
+
 	    setPriority(priorityDefault);
 	}
 
@@ -205,8 +308,7 @@ public class PriorityScheduler extends Scheduler {
 	 * @return	the effective priority of the associated thread.
 	 */
 	public int getEffectivePriority() {
-	    // implement me
-	    return priority;
+	    return effectivePriority;
 	}
 
 	/**
@@ -217,10 +319,10 @@ public class PriorityScheduler extends Scheduler {
 	public void setPriority(int priority) {
 	    if (this.priority == priority)
 		return;
-	    
+
 	    this.priority = priority;
-	    
-	    // implement me
+
+	    updateEffectivePriority();
 	}
 
 	/**
@@ -236,7 +338,13 @@ public class PriorityScheduler extends Scheduler {
 	 * @see	nachos.threads.ThreadQueue#waitForAccess
 	 */
 	public void waitForAccess(PriorityQueue waitQueue) {
-	    // implement me
+	    Lib.assertTrue(waitingOn == null);
+
+	    enqueueTime = numEnqueued++;
+	    waitQueue.add(this);
+
+	    if (waitQueue.transferPriority && waitQueue.holder != null)
+		waitQueue.holder.updateEffectivePriority();
 	}
 
 	/**
@@ -250,12 +358,74 @@ public class PriorityScheduler extends Scheduler {
 	 * @see	nachos.threads.ThreadQueue#nextThread
 	 */
 	public void acquire(PriorityQueue waitQueue) {
-	    // implement me
-	}	
+	    Lib.assertTrue(waitingOn != waitQueue);
+
+	    waitQueue.setHolder(this);
+	}
+
+	/**
+	 * Recompute the effective priority of the associated thread, and if
+	 * it changed, pass the change on through the queue the thread is
+	 * waiting on.
+	 */
+	void updateEffectivePriority() {
+	    ThreadState state = this;
+
+	    while (state != null) {
+		int effective = state.computeEffectivePriority();
+		if (effective == state.effectivePriority)
+		    return;
+
+		state.effectivePriority = effective;
 
-	/** The thread with which this object is associated. */	   
+		PriorityQueue queue = state.waitingOn;
+		if (queue == null)
+		    return;
+
+		queue.reposition(state);
+
+		state = queue.transferPriority ? queue.holder : null;
+	    }
+	}
+
+	/**
+	 * Compute the effective priority of the associated thread from its own
+	 * priority and the donations of the queues it holds.
+	 *
+	 * @return	the effective priority of the associated thread.
+	 */
+	protected int computeEffectivePriority() {
+	    int effective = priority;
+	    for (PriorityQueue queue : held)
+		effective = Math.max(effective, queue.getDonatedPriority());
+
+	    return effective;
+	}
+
+	/**
+	 * Return <tt>true</tt> if the associated thread should be dequeued
+	 * before the specified thread.
+	 */
+	boolean before(ThreadState state) {
+	    if (effectivePriority != state.effectivePriority)
+		return effectivePriority > state.effectivePriority;
+
+	    return enqueueTime < state.enqueueTime;
+	}
+
+	/** The thread with which this object is associated. */
 	protected KThread thread;
 	/** The priority of the associated thread. */
 	protected int priority;
+	/** The cached effective priority of the associated thread. */
+	protected int effectivePriority;
+
+	/** The queues held by this thread that transfer priority. */
+	HashSet<PriorityQueue> held = new HashSet<PriorityQueue>();
+	/** The queue this thread is waiting on, if any. */
+	PriorityQueue waitingOn = null;
+	long enqueueTime;
     }
+
+    private static long numEnqueued = 0;
 }
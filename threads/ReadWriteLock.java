@@ -0,0 +1,299 @@
+package nachos.threads;
+
+import java.util.HashSet;
+import nachos.machine.*;
+
+/**
+ * A <tt>ReadWriteLock</tt> is a lock that can be held either by any number of
+ * <i>readers</i> at once, or by a single <i>writer</i>. The operations are:
+ *
+ * <ul>
+ * <li><tt>acquireRead()</tt>: wait until no writer holds or is waiting for
+ * the lock, then hold it for reading.
+ * <li><tt>acquireWrite()</tt>: wait until no thread holds the lock, then hold
+ * it for writing.
+ * <li><tt>releaseRead()</tt> and <tt>releaseWrite()</tt>: give up the lock.
+ * <li><tt>upgrade()</tt>: turn a read lock into a write lock, once the other
+ * readers have released theirs.
+ * <li><tt>downgrade()</tt>: atomically turn a write lock into a read lock.
+ * </ul>
+ *
+ * <p>
+ * Writers have preference: once a writer is waiting, new readers wait
+ * behind it, so that a steady stream of readers cannot starve writers. When
+ * a writer releases the lock, it is given to the next waiting writer if
+ * there is one, and otherwise to all waiting readers at once.
+ *
+ * <p>
+ * Waiting writers wait on a thread queue that transfers priority, so they
+ * donate priority to the writer holding the lock, or to the thread that
+ * downgraded it while it still reads. If that thread releases its read lock
+ * while other readers remain, the first waiting writer is taken off the
+ * queue and becomes the next writer, and the others donate to it instead.
+ * Waiting readers do not donate priority, since there may be many readers
+ * holding the lock and a thread queue has only one holder.
+ *
+ * <p>
+ * As with <tt>Lock</tt>, only a thread that holds the lock may release it,
+ * and a thread must not acquire the lock while it already holds it.
+ */
+public class ReadWriteLock {
+    /**
+     * Allocate a new read-write lock. The lock will initially be free.
+     */
+    public ReadWriteLock() {
+    }
+
+    /**
+     * Atomically acquire this lock for reading.
+     */
+    public void acquireRead() {
+	Lib.assertTrue(!isHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+	KThread thread = KThread.currentThread();
+
+	if (writer == null && upgrader == null && nextWriter == null &&
+	    numWaitingWriters == 0) {
+	    readers.add(thread);
+	}
+	else {
+	    readQueue.waitForAccess(thread);
+	    KThread.sleep();
+	}
+
+	Lib.assertTrue(readers.contains(thread));
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Atomically release this lock, which the current thread holds for
+     * reading.
+     */
+    public void releaseRead() {
+	Lib.assertTrue(isReadHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+
+	readers.remove(thread);
+
+	if (thread == queueHolder && !readers.isEmpty())
+	    passWriteQueue();
+
+	if (upgrader != null) {
+	    // the upgrading thread is waiting for the other readers to leave
+	    if (readers.size() == 1) {
+		thread = upgrader;
+		upgrader = null;
+		becomeWriter(thread);
+		thread.ready();
+	    }
+	}
+	else if (readers.isEmpty()) {
+	    grantNext();
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Atomically acquire this lock for writing.
+     */
+    public void acquireWrite() {
+	Lib.assertTrue(!isHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+	KThread thread = KThread.currentThread();
+
+	if (writer == null && readers.isEmpty()) {
+	    writeQueue.acquire(thread);
+	    queueHolder = writer = thread;
+	}
+	else {
+	    numWaitingWriters++;
+	    writeQueue.waitForAccess(thread);
+	    KThread.sleep();
+	}
+
+	Lib.assertTrue(writer == thread);
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Atomically release this lock, which the current thread holds for
+     * writing.
+     */
+    public void releaseWrite() {
+	Lib.assertTrue(isWriteHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	writer = null;
+	grantNext();
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Atomically turn the read lock held by the current thread into a write
+     * lock, waiting for any other readers to release the lock first. The
+     * upgrade takes precedence over waiting writers.
+     *
+     * <p>
+     * Only one thread can upgrade at a time, since two readers each waiting
+     * for the other to leave would deadlock. If another thread is already
+     * upgrading, return <tt>false</tt> at once; the current thread still
+     * holds the read lock, and should release it before acquiring the write
+     * lock.
+     *
+     * @return	<tt>true</tt> if the current thread now holds the write lock,
+     *		or <tt>false</tt> if it still holds the read lock.
+     */
+    public boolean upgrade() {
+	Lib.assertTrue(isReadHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+	KThread thread = KThread.currentThread();
+
+	if (upgrader != null) {
+	    Machine.interrupt().restore(intStatus);
+	    return false;
+	}
+
+	if (readers.size() == 1) {
+	    becomeWriter(thread);
+	}
+	else {
+	    upgrader = thread;
+	    KThread.sleep();
+	}
+
+	Lib.assertTrue(writer == thread);
+
+	Machine.interrupt().restore(intStatus);
+	return true;
+    }
+
+    /**
+     * Atomically turn the write lock held by the current thread into a read
+     * lock. If no writer is waiting, the waiting readers are let in as well.
+     */
+    public void downgrade() {
+	Lib.assertTrue(isWriteHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	writer = null;
+	readers.add(KThread.currentThread());
+
+	if (nextWriter == null && numWaitingWriters == 0)
+	    admitReaders();
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Test if the current thread holds this lock for reading.
+     *
+     * @return	true if the current thread holds this lock for reading.
+     */
+    public boolean isReadHeldByCurrentThread() {
+	return readers.contains(KThread.currentThread());
+    }
+
+    /**
+     * Test if the current thread holds this lock for writing.
+     *
+     * @return	true if the current thread holds this lock for writing.
+     */
+    public boolean isWriteHeldByCurrentThread() {
+	return (writer == KThread.currentThread());
+    }
+
+    /**
+     * Test if the current thread holds this lock, for reading or writing.
+     *
+     * @return	true if the current thread holds this lock.
+     */
+    public boolean isHeldByCurrentThread() {
+	return isReadHeldByCurrentThread() || isWriteHeldByCurrentThread();
+    }
+
+    /**
+     * The lock has become free. Give it to the next waiting writer, or if
+     * there is none, to all the waiting readers.
+     */
+    private void grantNext() {
+	if (nextWriter != null) {
+	    writer = nextWriter;
+	    nextWriter = null;
+	    writer.ready();
+	    return;
+	}
+
+	// this also takes the donation of the writers from the last holder
+	queueHolder = writer = writeQueue.nextThread();
+
+	if (writer != null) {
+	    numWaitingWriters--;
+	    writer.ready();
+	}
+	else {
+	    admitReaders();
+	}
+    }
+
+    /**
+     * The holder of the writers' queue has released its read lock, but other
+     * readers remain. Take the first waiting writer off the queue, so that it
+     * becomes the holder and the next writer, or if no writer is waiting,
+     * leave the queue without a holder.
+     */
+    private void passWriteQueue() {
+	queueHolder = nextWriter = writeQueue.nextThread();
+
+	if (nextWriter != null)
+	    numWaitingWriters--;
+    }
+
+    /**
+     * Turn the read lock of the specified thread into a write lock. If no
+     * writer is waiting, the thread also takes over the writers' queue, so
+     * that writers that start waiting donate priority to it.
+     */
+    private void becomeWriter(KThread thread) {
+	readers.remove(thread);
+	writer = thread;
+
+	if (nextWriter == null && numWaitingWriters == 0) {
+	    writeQueue.acquire(thread);
+	    queueHolder = thread;
+	}
+    }
+
+    private void admitReaders() {
+	KThread thread;
+	while ((thread = readQueue.nextThread()) != null) {
+	    readers.add(thread);
+	    thread.ready();
+	}
+    }
+
+    private KThread writer = null;
+    private KThread upgrader = null;
+    /** A writer taken off the queue, waiting for the readers to leave. */
+    private KThread nextWriter = null;
+    /** The thread the writers' queue was last given to. */
+    private KThread queueHolder = null;
+    private HashSet<KThread> readers = new HashSet<KThread>();
+    private int numWaitingWriters = 0;
+
+    private ThreadQueue writeQueue =
+	ThreadedKernel.scheduler.newThreadQueue(true);
+    private ThreadQueue readQueue =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+}
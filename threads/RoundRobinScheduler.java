@@ -2,15 +2,18 @@ package nachos.threads;
 
 import nachos.machine.*;
 
-import java.util.LinkedList;
-import java.util.Iterator;
-
 /**
  * A round-robin scheduler tracks waiting threads in FIFO queues, implemented
  * with linked lists. When a thread begins waiting for access, it is appended
  * to the end of a list. The next thread to receive access is always the first
  * thread in the list. This causes access to be given on a first-come
  * first-serve basis.
+ *
+ * <p>
+ * The lists are threaded through the <tt>queueNext</tt> and
+ * <tt>queuePrev</tt> fields of each <tt>KThread</tt>, rather than built out
+ * of separately allocated nodes, since a thread never waits on more than one
+ * queue at a time.
  */
 public class RoundRobinScheduler extends Scheduler {
     /**
@@ -38,8 +41,17 @@ public class RoundRobinScheduler extends Scheduler {
 	 */    
 	public void waitForAccess(KThread thread) {
 	    Lib.assertTrue(Machine.interrupt().disabled());
-		       
-	    waitQueue.add(thread);
+	    Lib.assertTrue(thread.queuedOn == null);
+
+	    thread.queuedOn = this;
+	    thread.queuePrev = last;
+	    thread.queueNext = null;
+
+	    if (last == null)
+		first = thread;
+	    else
+		last.queueNext = thread;
+	    last = thread;
 	}
 
 	/**
@@ -52,10 +64,12 @@ public class RoundRobinScheduler extends Scheduler {
 	public KThread nextThread() {
 	    Lib.assertTrue(Machine.interrupt().disabled());
 		       
-	    if (waitQueue.isEmpty())
+	    if (first == null)
 		return null;
 
-	    return (KThread) waitQueue.removeFirst();
+	    KThread thread = first;
+	    unlink(thread);
+	    return thread;
 	}
 
 	/**
@@ -66,7 +80,22 @@ public class RoundRobinScheduler extends Scheduler {
 	public void acquire(KThread thread) {
 	    Lib.assertTrue(Machine.interrupt().disabled());
 		       
-	    Lib.assertTrue(waitQueue.isEmpty());
+	    Lib.assertTrue(first == null);
+	}
+
+	/**
+	 * Remove the specified thread from the queue, if it is waiting.
+	 *
+	 * @return	<tt>true</tt> if the thread was on the queue.
+	 */
+	public boolean remove(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    if (thread.queuedOn != this)
+		return false;
+
+	    unlink(thread);
+	    return true;
 	}
 
 	/**
@@ -75,10 +104,30 @@ public class RoundRobinScheduler extends Scheduler {
 	public void print() {
 	    Lib.assertTrue(Machine.interrupt().disabled());
 
-	    for (Iterator i=waitQueue.iterator(); i.hasNext(); )
-		System.out.print((KThread) i.next() + " ");
+	    for (KThread thread=first; thread!=null; thread=thread.queueNext)
+		System.out.print(thread + " ");
+	}
+
+	/**
+	 * Unlink a thread that is waiting on this queue.
+	 */
+	private void unlink(KThread thread) {
+	    if (thread.queuePrev == null)
+		first = thread.queueNext;
+	    else
+		thread.queuePrev.queueNext = thread.queueNext;
+
+	    if (thread.queueNext == null)
+		last = thread.queuePrev;
+	    else
+		thread.queueNext.queuePrev = thread.queuePrev;
+
+	    thread.queuedOn = null;
+	    thread.queueNext = null;
+	    thread.queuePrev = null;
 	}
 
-	private LinkedList<KThread> waitQueue = new LinkedList<KThread>();
+	private KThread first = null;
+	private KThread last = null;
     }
 }
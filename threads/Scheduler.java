@@ -9,9 +9,19 @@ import nachos.machine.*;
  */
 public abstract class Scheduler {
     /**
-     * Allocate a new scheduler.
+     * Allocate a new scheduler. The preemption quantum is read from the
+     * configuration keys <tt>quantum</tt>, <tt>adaptiveQuantum</tt> and
+     * <tt>maxQuantum</tt>, prefixed with the name of the scheduler class (for
+     * example, <tt>RoundRobinScheduler.quantum</tt>).
      */
     public Scheduler() {
+	String name = getClass().getSimpleName();
+
+	quantum = Config.getInteger(name + ".quantum", 1);
+	adaptiveQuantum = Config.getBoolean(name + ".adaptiveQuantum", false);
+	maxQuantum = Config.getInteger(name + ".maxQuantum", 8*quantum);
+
+	Lib.assertTrue(quantum >= 1 && maxQuantum >= quantum);
     }
     
     /**
@@ -52,6 +62,18 @@ public abstract class Scheduler {
      */
     public abstract ThreadQueue newThreadQueue(boolean transferPriority);
 
+    /**
+     * Allocate the queue of threads waiting for the processor. The thread
+     * that has access to this queue is always the thread that is running. By
+     * default this is the same as <tt>newThreadQueue(false)</tt>, but a
+     * scheduler may override it to treat the processor specially.
+     *
+     * @return	a new ready queue.
+     */
+    public ThreadQueue newReadyQueue() {
+	return newThreadQueue(false);
+    }
+
     /**
      * Get the priority of the specified thread. Must be called with
      * interrupts disabled.
@@ -154,4 +176,77 @@ public abstract class Scheduler {
     public boolean decreasePriority() {
 	return false;
     }
+
+    /**
+     * Called by the alarm on every timer interrupt, with interrupts disabled,
+     * to decide whether the current thread should be preempted. By default
+     * the current thread is preempted once it has run for
+     * <tt>getQuantum(thread)</tt> timer interrupts since it was last
+     * dispatched.
+     *
+     * @param	thread	the thread that was running when the timer interrupt
+     *			occurred.
+     * @return	<tt>true</tt> if the current thread should yield.
+     */
+    public boolean timerInterrupt(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	return ++thread.sliceUsed >= getQuantum(thread);
+    }
+
+    /**
+     * Return the number of timer interrupts the specified thread may run for
+     * before it is preempted. Must be called with interrupts disabled.
+     *
+     * <p>
+     * This is the thread's own quantum if one was set with
+     * <tt>setQuantum()</tt>, and otherwise the scheduler's quantum. In
+     * adaptive mode, the scheduler's quantum is <tt>maxQuantum</tt> divided
+     * by the number of ready threads, but no less than <tt>quantum</tt>, so
+     * that the quantum grows when few threads are ready and shrinks under
+     * load. With no thread ready, the current thread is not preempted at
+     * all.
+     *
+     * @param	thread	the thread to get the quantum of.
+     * @return	the thread's quantum, in timer interrupts.
+     */
+    public int getQuantum(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	if (thread.quantum > 0)
+	    return thread.quantum;
+
+	if (!adaptiveQuantum)
+	    return quantum;
+
+	int numReady = KThread.numReady();
+	if (numReady == 0)
+	    return Integer.MAX_VALUE;
+
+	return Math.max(quantum, maxQuantum / numReady);
+    }
+
+    /**
+     * Set the quantum of the specified thread, overriding the scheduler's
+     * quantum. A quantum of 0 restores the scheduler's quantum. Must be
+     * called with interrupts disabled. Schedulers that make their own
+     * preemption decisions in <tt>timerInterrupt()</tt> may ignore it.
+     *
+     * @param	thread	the thread to set the quantum of.
+     * @param	quantum	the new quantum, in timer interrupts.
+     */
+    public void setQuantum(KThread thread, int quantum) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	Lib.assertTrue(quantum >= 0);
+
+	thread.quantum = quantum;
+    }
+
+    /** The scheduler's quantum, in timer interrupts. */
+    protected int quantum;
+    /** The longest quantum in adaptive mode. */
+    protected int maxQuantum;
+    /** <tt>true</tt> if the quantum adapts to the number of ready threads. */
+    protected boolean adaptiveQuantum;
 }
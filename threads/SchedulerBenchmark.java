@@ -0,0 +1,294 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.Arrays;
+import java.util.StringTokenizer;
+
+/**
+ * A kernel that benchmarks the configured scheduler. Each workload is run in
+ * turn by a group of kernel threads, and a report of its throughput,
+ * fairness, waiting times and context switches is printed. Run it once per
+ * scheduler, with <tt>ThreadedKernel.scheduler</tt> set accordingly, to
+ * compare schedulers on the same workloads.
+ *
+ * <p>
+ * The workloads are:
+ * <ul>
+ * <li><tt>cpu</tt>: CPU-bound threads that never block. Reports each thread's
+ * share of the processor.
+ * <li><tt>lock</tt>: threads that repeatedly do some work while holding a
+ * shared <tt>Lock</tt>, and some without it. Reports the time spent waiting
+ * for the lock.
+ * <li><tt>pc</tt>: producers and consumers passing messages through a
+ * <tt>Communicator</tt>. Reports the time from <tt>speak()</tt> to the
+ * matching <tt>listen()</tt> returning.
+ * <li><tt>alarm</tt>: threads that sleep for random intervals with
+ * <tt>Alarm.waitUntil()</tt>. Reports how late each thread wakes up.
+ * </ul>
+ *
+ * <p>
+ * The benchmark is configured with <tt>SchedulerBenchmark.workloads</tt> (a
+ * space-separated list of the workloads above), <tt>.threads</tt> (threads
+ * per workload), <tt>.duration</tt> (simulated ticks per workload) and
+ * <tt>.messages</tt> (messages per producer).
+ */
+public class SchedulerBenchmark extends ThreadedKernel {
+    /**
+     * Allocate a new scheduler benchmark kernel.
+     */
+    public SchedulerBenchmark() {
+	super();
+    }
+
+    /**
+     * Initialize this kernel, and read the benchmark configuration.
+     */
+    public void initialize(String[] args) {
+	super.initialize(args);
+
+	workloads = Config.getString("SchedulerBenchmark.workloads",
+				     "cpu lock pc alarm");
+	numThreads = Config.getInteger("SchedulerBenchmark.threads", 8);
+	duration = Config.getInteger("SchedulerBenchmark.duration", 200000);
+	numMessages = Config.getInteger("SchedulerBenchmark.messages", 200);
+
+	Lib.assertTrue(numThreads >= 2 && duration > 0 && numMessages > 0);
+    }
+
+    /**
+     * The benchmark does not run the self tests, so that they do not disturb
+     * the measurements.
+     */
+    public void selfTest() {
+    }
+
+    /**
+     * Run each configured workload and print its report.
+     */
+    public void run() {
+	System.out.println("Scheduler benchmark: " +
+			   scheduler.getClass().getName() + ", " +
+			   numThreads + " threads");
+
+	StringTokenizer st = new StringTokenizer(workloads);
+	while (st.hasMoreTokens()) {
+	    String name = st.nextToken();
+
+	    begin(name);
+
+	    if (name.equals("cpu"))
+		runCPU();
+	    else if (name.equals("lock"))
+		runLock();
+	    else if (name.equals("pc"))
+		runProducerConsumer();
+	    else if (name.equals("alarm"))
+		runAlarm();
+	    else
+		Lib.assertNotReached("unknown workload: " + name);
+
+	    end();
+	}
+    }
+
+    private void runCPU() {
+	final long stopTime = Machine.timer().getTime() + duration;
+	final long[] work = new long[numThreads];
+
+	KThread[] threads = new KThread[numThreads];
+	for (int i=0; i<numThreads; i++) {
+	    final int which = i;
+	    threads[i] = new KThread(new Runnable() {
+		    public void run() {
+			while (Machine.timer().getTime() < stopTime) {
+			    work(1);
+			    work[which]++;
+			}
+		    }
+		}).setName("cpu " + i);
+	}
+
+	joinAll(threads);
+
+	for (int i=0; i<numThreads; i++)
+	    numOps += work[i];
+
+	share = work;
+    }
+
+    private void runLock() {
+	final long stopTime = Machine.timer().getTime() + duration;
+	final Lock lock = new Lock();
+
+	KThread[] threads = new KThread[numThreads];
+	for (int i=0; i<numThreads; i++) {
+	    threads[i] = new KThread(new Runnable() {
+		    public void run() {
+			while (Machine.timer().getTime() < stopTime) {
+			    long start = Machine.timer().getTime();
+			    lock.acquire();
+			    record(Machine.timer().getTime() - start);
+			    work(2);
+			    lock.release();
+			    work(2);
+			}
+		    }
+		}).setName("lock " + i);
+	}
+
+	joinAll(threads);
+    }
+
+    private void runProducerConsumer() {
+	final Communicator communicator = new Communicator();
+	int numProducers = numThreads/2;
+
+	KThread[] threads = new KThread[2*numProducers];
+	for (int i=0; i<numProducers; i++) {
+	    threads[2*i] = new KThread(new Runnable() {
+		    public void run() {
+			for (int j=0; j<numMessages; j++) {
+			    communicator.speak((int) Machine.timer().getTime());
+			    work(1);
+			}
+		    }
+		}).setName("producer " + i);
+
+	    threads[2*i+1] = new KThread(new Runnable() {
+		    public void run() {
+			for (int j=0; j<numMessages; j++) {
+			    int word = communicator.listen();
+			    record(Machine.timer().getTime() - word);
+			    work(1);
+			}
+		    }
+		}).setName("consumer " + i);
+	}
+
+	joinAll(threads);
+    }
+
+    private void runAlarm() {
+	final long stopTime = Machine.timer().getTime() + duration;
+
+	KThread[] threads = new KThread[numThreads];
+	for (int i=0; i<numThreads; i++) {
+	    threads[i] = new KThread(new Runnable() {
+		    public void run() {
+			while (Machine.timer().getTime() < stopTime) {
+			    long delay = 100 + Lib.random(2000);
+			    long wakeTime = Machine.timer().getTime() + delay;
+			    alarm.waitUntil(delay);
+			    record(Machine.timer().getTime() - wakeTime);
+			    work(1);
+			}
+		    }
+		}).setName("alarm " + i);
+	}
+
+	joinAll(threads);
+    }
+
+    /**
+     * Do some work that takes <i>units</i> kernel ticks of simulated time,
+     * and may be preempted.
+     */
+    private static void work(int units) {
+	for (int i=0; i<units; i++) {
+	    Machine.interrupt().disable();
+	    Machine.interrupt().enable();
+	}
+    }
+
+    private static void joinAll(KThread[] threads) {
+	for (int i=0; i<threads.length; i++)
+	    threads[i].fork();
+	for (int i=0; i<threads.length; i++)
+	    threads[i].join();
+    }
+
+    /**
+     * Record one waiting time, which also counts as one operation.
+     */
+    private void record(long ticks) {
+	if (numWaits == waits.length)
+	    waits = Arrays.copyOf(waits, 2*numWaits);
+
+	waits[numWaits++] = ticks;
+	numOps++;
+    }
+
+    private void begin(String name) {
+	workload = name;
+	numOps = 0;
+	numWaits = 0;
+	share = null;
+
+	startTicks = Machine.timer().getTime();
+	startSwitches = TCB.getContextSwitches();
+	startMillis = System.currentTimeMillis();
+    }
+
+    private void end() {
+	long ticks = Machine.timer().getTime() - startTicks;
+	long millis = Math.max(System.currentTimeMillis() - startMillis, 1);
+	int switches = TCB.getContextSwitches() - startSwitches;
+
+	System.out.println("== " + workload);
+	System.out.println("  time: " + ticks + " ticks, " + millis +
+			   " ms wall-clock");
+	System.out.println("  throughput: " + numOps + " ops, " +
+			   format(numOps * 1000.0 / ticks) +
+			   " ops/1000 ticks, " +
+			   format((double) numOps / millis) + " ops/ms");
+	System.out.println("  context switches: " + switches + ", " +
+			   format(switches * 1000.0 / ticks) +
+			   " per 1000 ticks");
+
+	if (share != null) {
+	    double sum = 0, sumSquares = 0;
+	    StringBuffer shares = new StringBuffer();
+	    for (int i=0; i<share.length; i++) {
+		sum += share[i];
+		sumSquares += (double) share[i] * share[i];
+	    }
+	    for (int i=0; i<share.length; i++)
+		shares.append(" " + format(100.0 * share[i] / sum) + "%");
+
+	    System.out.println("  CPU share:" + shares);
+	    System.out.println("  fairness (Jain): " +
+			       format(sum*sum / (share.length*sumSquares)));
+	}
+
+	if (numWaits > 0) {
+	    long[] sorted = Arrays.copyOf(waits, numWaits);
+	    Arrays.sort(sorted);
+
+	    System.out.println("  wait ticks: p50 " + percentile(sorted, 50) +
+			       ", p90 " + percentile(sorted, 90) +
+			       ", p99 " + percentile(sorted, 99) +
+			       ", max " + sorted[sorted.length-1]);
+	}
+    }
+
+    private static long percentile(long[] sorted, int p) {
+	int index = (int) Math.ceil(sorted.length * p / 100.0) - 1;
+	return sorted[Math.max(index, 0)];
+    }
+
+    private static String format(double value) {
+	return String.valueOf(Math.round(value * 100) / 100.0);
+    }
+
+    private String workloads;
+    private int numThreads, duration, numMessages;
+
+    private String workload;
+    private long startTicks, startMillis;
+    private int startSwitches;
+    private long numOps;
+    private long[] share;
+    private long[] waits = new long[1024];
+    private int numWaits;
+}
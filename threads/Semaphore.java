@@ -36,18 +36,54 @@ public class Semaphore {
      */
     public void P() {
 	boolean intStatus = Machine.interrupt().disable();
+	long startTime = (profile != null) ? Machine.timer().getTime() : 0;
 
 	if (value == 0) {
 	    waitQueue.waitForAccess(KThread.currentThread());
 	    KThread.sleep();
+	    profileAcquire(startTime, true);
 	}
 	else {
 	    value--;
+	    profileAcquire(startTime, false);
 	}
 
 	Machine.interrupt().restore(intStatus);
     }
 
+    /**
+     * Atomically wait at most <i>ticks</i> clock ticks for this semaphore to
+     * become non-zero, and decrement it if it does. If <i>ticks</i> is not
+     * positive, do not wait at all.
+     *
+     * @param	ticks	the maximum number of clock ticks to wait.
+     * @return	<tt>true</tt> if the semaphore was decremented, or
+     *		<tt>false</tt> if the time ran out.
+     */
+    public boolean tryP(long ticks) {
+	boolean intStatus = Machine.interrupt().disable();
+	long startTime = (profile != null) ? Machine.timer().getTime() : 0;
+
+	boolean decremented;
+	if (value > 0) {
+	    value--;
+	    decremented = true;
+	    profileAcquire(startTime, false);
+	}
+	else if (ticks <= 0) {
+	    decremented = false;
+	}
+	else {
+	    waitQueue.waitForAccess(KThread.currentThread());
+	    decremented = ThreadedKernel.alarm.sleepOn(waitQueue, ticks);
+	    if (decremented)
+		profileAcquire(startTime, true);
+	}
+
+	Machine.interrupt().restore(intStatus);
+	return decremented;
+    }
+
     /**
      * Atomically increment this semaphore and wake up at most one other thread
      * sleeping on this semaphore.
@@ -101,7 +137,19 @@ public class Semaphore {
 	}
     }
 
+    /**
+     * Record a decrement of this semaphore by the current thread with the
+     * contention profiler, if it is enabled.
+     */
+    private void profileAcquire(long startTime, boolean contended) {
+	if (profile != null)
+	    profile.acquired(Machine.timer().getTime() - startTime, contended);
+    }
+
     private int value;
     private ThreadQueue waitQueue =
 	ThreadedKernel.scheduler.newThreadQueue(false);
+
+    private ContentionProfiler.Record profile =
+	ContentionProfiler.newRecord("Semaphore");
 }
@@ -0,0 +1,315 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A scheduler that shares the processor among threads in proportion to their
+ * tickets, deterministically.
+ *
+ * <p>
+ * A stride scheduler associates a number of tickets with each thread. Each
+ * thread has a <i>stride</i>, inversely proportional to its tickets, and a
+ * <i>pass</i>. The thread with the lowest pass is always run next, and each
+ * time a thread is given the processor, its pass is advanced by its stride.
+ * Over any interval, a thread therefore receives a share of the processor
+ * proportional to its tickets, with an error of at most one quantum, and
+ * without the variance of a lottery.
+ *
+ * <p>
+ * A thread that starts waiting for the processor after being blocked has its
+ * pass raised to the pass of the most recently dispatched thread, so that it
+ * cannot monopolize the processor to make up for the time it spent blocked.
+ *
+ * <p>
+ * Other queues are ordered by pass as well, but do not advance it. Tickets are
+ * not transferred through locks or joins.
+ */
+public class StrideScheduler extends Scheduler {
+    /**
+     * Allocate a new stride scheduler.
+     */
+    public StrideScheduler() {
+    }
+
+    /**
+     * Allocate a new stride thread queue.
+     *
+     * @param	transferPriority	ignored. Stride schedulers do not
+     *					transfer tickets.
+     * @return	a new stride thread queue.
+     */
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+	return new StrideQueue(false);
+    }
+
+    /**
+     * Allocate a new stride queue for the processor. Dispatching a thread
+     * from this queue advances its pass.
+     *
+     * @return	a new ready queue.
+     */
+    public ThreadQueue newReadyQueue() {
+	return new StrideQueue(true);
+    }
+
+    public int getPriority(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	return getThreadState(thread).tickets;
+    }
+
+    public int getEffectivePriority(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	return getThreadState(thread).tickets;
+    }
+
+    public void setPriority(KThread thread, int priority) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	Lib.assertTrue(priority >= priorityMinimum &&
+		   priority <= priorityMaximum);
+
+	getThreadState(thread).setTickets(priority);
+    }
+
+    public boolean increasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+
+	int priority = getPriority(thread);
+	if (priority == priorityMaximum) {
+	    Machine.interrupt().restore(intStatus);
+	    return false;
+	}
+
+	setPriority(thread, priority+1);
+
+	Machine.interrupt().restore(intStatus);
+	return true;
+    }
+
+    public boolean decreasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+
+	int priority = getPriority(thread);
+	if (priority == priorityMinimum) {
+	    Machine.interrupt().restore(intStatus);
+	    return false;
+	}
+
+	setPriority(thread, priority-1);
+
+	Machine.interrupt().restore(intStatus);
+	return true;
+    }
+
+    /**
+     * The default number of tickets for a new thread.
+     */
+    public static final int priorityDefault = 1;
+    /**
+     * The minimum number of tickets that a thread can have.
+     */
+    public static final int priorityMinimum = 1;
+    /**
+     * The maximum number of tickets that a thread can have.
+     */
+    public static final int priorityMaximum = 1<<20;
+
+    /**
+     * The stride of a thread with one ticket. The stride of a thread is this
+     * value divided by its tickets.
+     */
+    public static final long stride1 = 1L<<20;
+
+    /**
+     * Return the scheduling state of the specified thread.
+     *
+     * @param	thread	the thread whose scheduling state to return.
+     * @return	the scheduling state of the specified thread.
+     */
+    protected ThreadState getThreadState(KThread thread) {
+	if (thread.schedulingState == null)
+	    thread.schedulingState = new ThreadState(thread);
+
+	return (ThreadState) thread.schedulingState;
+    }
+
+    /**
+     * A <tt>ThreadQueue</tt> that keeps its waiting threads in a binary heap
+     * ordered by pass, and among threads of equal pass, by the time they
+     * started waiting.
+     */
+    protected class StrideQueue extends ThreadQueue {
+	StrideQueue(boolean processor) {
+	    this.processor = processor;
+	}
+
+	public void waitForAccess(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    ThreadState state = getThreadState(thread);
+	    Lib.assertTrue(state.waitingOn == null);
+
+	    // a thread that waits while not running must have blocked
+	    if (processor && state != holder)
+		state.pass = Math.max(state.pass, globalPass);
+
+	    state.enqueueTime = numEnqueued++;
+
+	    heap.add(state);
+	    state.waitingOn = this;
+	}
+
+	public void acquire(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    holder = getThreadState(thread);
+	}
+
+	public KThread nextThread() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    ThreadState next = pickNextThread();
+	    if (next == null) {
+		holder = null;
+		return null;
+	    }
+
+	    remove(0);
+
+	    if (processor) {
+		globalPass = Math.max(globalPass, next.pass);
+		next.pass += next.stride;
+	    }
+
+	    holder = next;
+	    return next.thread;
+	}
+
+	public boolean remove(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    ThreadState state = getThreadState(thread);
+	    if (state.waitingOn != this)
+		return false;
+
+	    remove(state.heapIndex);
+	    return true;
+	}
+
+	/**
+	 * Return the next thread that <tt>nextThread()</tt> would return,
+	 * without modifying the state of this queue.
+	 *
+	 * @return	the next thread that <tt>nextThread()</tt> would
+	 *		return.
+	 */
+	protected ThreadState pickNextThread() {
+	    return heap.peek();
+	}
+
+	public void print() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    // print in the order the threads will be dequeued
+	    for (ThreadState state : heap.inOrder())
+		System.out.print(" " + state.thread + "(" + state.pass + ")");
+	}
+
+	void remove(int index) {
+	    heap.remove(index).waitingOn = null;
+	}
+
+	/**
+	 * Restore the heap order after the pass of the specified waiting
+	 * thread has changed.
+	 */
+	void reposition(ThreadState state) {
+	    heap.reposition(state);
+	}
+
+	/** <tt>true</tt> if this is the queue for the processor. */
+	private boolean processor;
+	/**
+	 * The pass of the thread most recently dispatched from this queue.
+	 * Only maintained for the processor queue.
+	 */
+	private long globalPass = 0;
+
+	private ThreadState holder = null;
+	private IndexedHeap<ThreadState> heap = new IndexedHeap<ThreadState>();
+    }
+
+    /**
+     * The scheduling state of a thread: its tickets, stride and pass, and the
+     * queue it's waiting for, if any.
+     *
+     * @see	nachos.threads.KThread#schedulingState
+     */
+    protected class ThreadState extends IndexedHeap.Element<ThreadState> {
+	/**
+	 * Allocate a new <tt>ThreadState</tt> object and associate it with the
+	 * specified thread.
+	 *
+	 * @param	thread	the thread this state belongs to.
+	 */
+	public ThreadState(KThread thread) {
+	    this.thread = thread;
+
+	    setTickets(priorityDefault);
+	}
+
+	/**
+	 * Set the tickets of the associated thread. The part of the current
+	 * stride that the thread has yet to use up is rescaled to the new
+	 * stride, so that the change takes effect immediately.
+	 *
+	 * @param	tickets	the new number of tickets.
+	 */
+	void setTickets(int tickets) {
+	    if (this.tickets == tickets)
+		return;
+
+	    long newStride = stride1 / tickets;
+
+	    if (this.tickets != 0 && waitingOn != null && waitingOn.processor) {
+		long remain = pass - waitingOn.globalPass;
+		pass = waitingOn.globalPass + remain * newStride / stride;
+		waitingOn.reposition(this);
+	    }
+
+	    this.tickets = tickets;
+	    stride = newStride;
+	}
+
+	/**
+	 * Return <tt>true</tt> if the associated thread should be dequeued
+	 * before the specified thread.
+	 */
+	boolean before(ThreadState state) {
+	    if (pass != state.pass)
+		return pass < state.pass;
+
+	    return enqueueTime < state.enqueueTime;
+	}
+
+	/** The thread with which this object is associated. */
+	protected KThread thread;
+	/** The tickets of the associated thread. */
+	protected int tickets;
+	/** The stride of the associated thread. */
+	protected long stride;
+	/** The pass of the associated thread. */
+	protected long pass;
+
+	StrideQueue waitingOn = null;
+	long enqueueTime;
+    }
+
+    private static long numEnqueued = 0;
+}
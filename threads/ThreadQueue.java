@@ -91,6 +91,20 @@ public abstract class ThreadQueue {
      */
     public abstract void acquire(KThread thread);
 
+    /**
+     * Notify this thread queue that the specified thread has given up waiting
+     * for access, for example because a timed wait has expired. If the thread
+     * is waiting on this queue, remove it, so that <tt>nextThread()</tt> will
+     * not return it. If the limited access object transfers priority, the
+     * thread no longer donates priority to the holder.
+     *
+     * @param	thread	the thread that no longer wants access.
+     * @return	<tt>true</tt> if the thread was waiting on this queue, or
+     *		<tt>false</tt> if it was not (for example, because
+     *		<tt>nextThread()</tt> has already returned it).
+     */
+    public abstract boolean remove(KThread thread);
+
     /**
      * Print out all the threads waiting for access, in no particular order.
      */
@@ -136,6 +136,13 @@ public class UserKernel extends ThreadedKernel {
         else
         {
             int randomPPN = (int) Math.floor(Math.random()*pagetable.size());
+            // shared pages and pages with futex waiters must stay put
+            int numPhysPages = Machine.processor().getNumPhysPages();
+            for (int tries=1; isPinned(randomPPN); tries++) {
+                if (tries == numPhysPages)
+                    return -1;
+                randomPPN = (randomPPN+1) % numPhysPages;
+            }
             Hashtable<nachos.userprog.UserProcess.InvertedPageTableIndex, nachos.machine.TranslationEntry> invertedPageTable = nachos.userprog.UserProcess.invertedPageTable;
             int i = 0;
             nachos.machine.TranslationEntry swapEntry = null;
@@ -158,12 +165,9 @@ public class UserKernel extends ThreadedKernel {
                 if(swapEntry.dirty==true)
                 {
 //                    swapFile.write(0,"hi".getBytes(),0,"hi".getBytes().length);
-                    byte[] memory = Machine.processor().getMemory();
                     int physicalStartAddr = Machine.processor().makeAddress(randomPPN, 0);
                     byte[] data = new byte[Processor.pageSize];
-                    for(int j = 0;j<data.length;j++){
-                        data[j]= memory[physicalStartAddr+j];
-                    }
+                    Machine.processor().readMemory(physicalStartAddr, data, 0, data.length);
                     int pagePosition = swapFilePosition.get(swapIndex);
                     swapFile.write(pagePosition,data,0,data.length);
 
@@ -171,18 +175,16 @@ public class UserKernel extends ThreadedKernel {
             }
             else
             {
-                byte[] memory = Machine.processor().getMemory();
                 int physicalStartAddr = Machine.processor().makeAddress(randomPPN, 0);
                 byte[] data = new byte[Processor.pageSize];
-                for(int j = 0;j<data.length;j++){
-                    data[j]= memory[physicalStartAddr+j];
-                }
+                Machine.processor().readMemory(physicalStartAddr, data, 0, data.length);
                 swapFile.write(currentPosition,data,0,data.length);
                 swapFilePosition.put(swapIndex,currentPosition);
                 currentPosition+=data.length;
             }
             returnPage = randomPPN;
             invertedPageTable.remove(swapIndex);
+            invalidateTLBEntries(randomPPN);
 //            System.out.println("hi");
         }
 
@@ -196,10 +198,237 @@ public class UserKernel extends ThreadedKernel {
     synchronized public static void reclaimPage(int pagenumber){
         
        // pageSychLock.acquire();
+        invalidateTLBEntries(pagenumber);
         pagetable.addFirst(pagenumber);
        // pageSychLock.release();
         
     }
+    /**
+     * Invalidate every TLB entry that maps the specified physical page. TLB
+     * entries of other processes are not flushed on a context switch, so
+     * they must be removed when their page is given to someone else.
+     *
+     * @param	ppn	the physical page being reused.
+     */
+    private static void invalidateTLBEntries(int ppn) {
+        Processor processor = Machine.processor();
+        if (!processor.hasTLB())
+            return;
+
+        for (int i=0; i<processor.getTLBSize(); i++) {
+            TranslationEntry entry = processor.readTLBEntry(i);
+            if (entry.valid && entry.ppn == ppn) {
+                entry.valid = false;
+                processor.writeTLBEntry(i, entry);
+            }
+        }
+    }
+
+    /**
+     * Pin the specified physical page, so that <tt>allocatePage()</tt> will
+     * not evict it. Pins nest; the page can be evicted again once every pin
+     * has been removed by <tt>unpinPage()</tt>.
+     *
+     * @param	ppn	the physical page to pin.
+     */
+    private static void pinPage(int ppn) {
+	Integer count = pinCounts.get(ppn);
+	pinCounts.put(ppn, (count == null) ? 1 : count+1);
+    }
+
+    /**
+     * Remove one pin from the specified physical page.
+     *
+     * @param	ppn	the physical page to unpin.
+     */
+    private static void unpinPage(int ppn) {
+	int count = pinCounts.get(ppn);
+	if (count == 1)
+	    pinCounts.remove(ppn);
+	else
+	    pinCounts.put(ppn, count-1);
+    }
+
+    private static boolean isPinned(int ppn) {
+	return pinCounts.containsKey(ppn);
+    }
+
+    /**
+     * Return the physical page shared under the specified key. The first
+     * process to ask for a key gets a new, zero-filled page; every later
+     * process gets the same page, until the last of them releases it with
+     * <tt>releaseSharedPage()</tt>. Shared pages are pinned, since they are
+     * mapped by more than one process.
+     *
+     * @param	key	the key identifying the shared page.
+     * @return	the physical page number, or -1 if no page is available.
+     */
+    public static int acquireSharedPage(int key) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	SharedPage page = sharedPages.get(key);
+	if (page == null) {
+	    int ppn = allocatePage();
+	    if (ppn == -1) {
+		Machine.interrupt().restore(intStatus);
+		return -1;
+	    }
+
+	    byte[] zeros = new byte[Processor.pageSize];
+	    Machine.processor().writeMemory(Processor.makeAddress(ppn, 0),
+					   zeros, 0, zeros.length);
+
+	    page = new SharedPage(ppn);
+	    sharedPages.put(key, page);
+	    pinPage(ppn);
+	}
+
+	page.numUsers++;
+
+	Machine.interrupt().restore(intStatus);
+	return page.ppn;
+    }
+
+    /**
+     * Release one process's use of the page shared under the specified key,
+     * freeing the page if no other process still uses it.
+     *
+     * @param	key	the key identifying the shared page.
+     */
+    public static void releaseSharedPage(int key) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	SharedPage page = sharedPages.get(key);
+	if (--page.numUsers == 0) {
+	    sharedPages.remove(key);
+	    unpinPage(page.ppn);
+	    reclaimPage(page.ppn);
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Atomically check that the word at the specified physical address
+     * still holds <i>expected</i>, and if so put the current thread to
+     * sleep on that word until another thread calls <tt>futexWake()</tt> on
+     * it, or until the timeout expires. Futexes are kernel-wide and keyed by
+     * physical address, so processes sharing a page can wait and wake on
+     * the same word; the page is pinned while it has waiters, so its
+     * address cannot change under them.
+     *
+     * @param	paddr	the physical address of the word.
+     * @param	expected	the value the word must still hold.
+     * @param	timeout	the maximum number of ticks to wait, or 0 to wait
+     *			until woken.
+     * @return	0 if woken, 1 if the word did not hold <i>expected</i>, or
+     *		2 if the timeout expired.
+     */
+    public static int futexWait(int paddr, int expected, long timeout) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	byte[] word = new byte[4];
+	Machine.processor().readMemory(paddr, word, 0, word.length);
+	if (Lib.bytesToInt(word, 0) != expected) {
+	    Machine.interrupt().restore(intStatus);
+	    return 1;
+	}
+
+	Futex futex = futexes.get(paddr);
+	if (futex == null) {
+	    futex = new Futex();
+	    futexes.put(paddr, futex);
+	    pinPage(Processor.pageFromAddress(paddr));
+	}
+
+	futex.numWaiters++;
+	futex.waitQueue.waitForAccess(KThread.currentThread());
+
+	boolean woken = true;
+	if (timeout == 0)
+	    KThread.sleep();
+	else
+	    woken = ThreadedKernel.alarm.sleepOn(futex.waitQueue, timeout);
+
+	// a waker accounts for the threads it takes off the queue
+	if (!woken)
+	    removeWaiter(paddr, futex);
+
+	Machine.interrupt().restore(intStatus);
+	return woken ? 0 : 2;
+    }
+
+    /**
+     * Wake up to <i>count</i> threads waiting in <tt>futexWait()</tt> on the
+     * word at the specified physical address.
+     *
+     * @param	paddr	the physical address of the word.
+     * @param	count	the maximum number of threads to wake.
+     * @return	the number of threads woken.
+     */
+    public static int futexWake(int paddr, int count) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	Futex futex = futexes.get(paddr);
+	int numWoken = 0;
+
+	while (futex != null && numWoken < count) {
+	    KThread thread = futex.waitQueue.nextThread();
+	    if (thread == null)
+		break;
+
+	    thread.ready();
+	    numWoken++;
+
+	    if (removeWaiter(paddr, futex))
+		break;
+	}
+
+	Machine.interrupt().restore(intStatus);
+	return numWoken;
+    }
+
+    /**
+     * Account for a thread leaving the futex at the specified address,
+     * dropping the futex and unpinning its page with the last waiter.
+     *
+     * @return	<tt>true</tt> if that was the last waiter.
+     */
+    private static boolean removeWaiter(int paddr, Futex futex) {
+	if (--futex.numWaiters > 0)
+	    return false;
+
+	futexes.remove(paddr);
+	unpinPage(Processor.pageFromAddress(paddr));
+	return true;
+    }
+
+    /** A page shared between processes under a key. */
+    private static class SharedPage {
+	SharedPage(int ppn) {
+	    this.ppn = ppn;
+	}
+
+	int ppn;
+	int numUsers = 0;
+    }
+
+    /** The threads waiting in <tt>futexWait()</tt> on one word of memory. */
+    private static class Futex {
+	ThreadQueue waitQueue = ThreadedKernel.scheduler.newThreadQueue(false);
+	int numWaiters = 0;
+    }
+
+    /** The futexes that have waiters, keyed by physical address. */
+    private static HashMap<Integer,Futex> futexes =
+	new HashMap<Integer,Futex>();
+    /** The pages shared between processes, keyed by their key. */
+    private static HashMap<Integer,SharedPage> sharedPages =
+	new HashMap<Integer,SharedPage>();
+    /** The number of pins on each pinned physical page. */
+    private static HashMap<Integer,Integer> pinCounts =
+	new HashMap<Integer,Integer>();
+
     /** Globally accessible reference to the synchronized console. */
     public static SynchConsole console;
 
@@ -198,8 +198,6 @@ public class UserProcess {
 	Lib.assertTrue(offset >= 0 && length >= 0 && offset+length <=data.length);
         int totalread = 0;
         int endVaddr = vaddr+ length - 1;
-        
-        byte[] memory = Machine.processor().getMemory();
 
         int lastAllowableAddress = Machine.processor().makeAddress(numPages - 1, pageSize - 1);
         
@@ -235,9 +233,7 @@ public class UserProcess {
            int readOffset = vaddr - pageStart;
            int physicalStartAddr = Machine.processor().makeAddress(pageTable[i].ppn, readOffset);
            
-           for(int j = 0;j<readSize;j++){
-               data[totalread+offset+j]= memory[physicalStartAddr+j];
-           }
+           Machine.processor().readMemory(physicalStartAddr, data, totalread+offset, readSize);
            
            totalread = totalread+readSize;
            vaddr = vaddr+readSize;
@@ -325,8 +321,6 @@ public class UserProcess {
         Lib.assertTrue(offset >= 0 && length >= 0 && offset+length <=data.length);
         int totalwrite = 0;
         int endVaddr = vaddr+ length - 1;
-        
-        byte[] memory = Machine.processor().getMemory();
 
         int allowableLastAddress = Machine.processor().makeAddress(numPages - 1, pageSize - 1);
         
@@ -363,9 +357,7 @@ public class UserProcess {
            int writeOffset = vaddr - pageStart;
            int physicalStartAddr = Machine.processor().makeAddress(pageTable[i].ppn, writeOffset);
            
-           for(int j = 0;j<writeSize;j++){
-               memory[physicalStartAddr+j]= data[totalwrite+offset+j];
-           }
+           Machine.processor().writeMemory(physicalStartAddr, data, totalwrite+offset, writeSize);
            
            totalwrite = totalwrite+writeSize;
            vaddr = vaddr+writeSize;
@@ -664,6 +656,7 @@ public class UserProcess {
      * Release any resources allocated by <tt>loadSections()</tt>.
      */
     protected void unloadSections() {
+        releaseSharedPages();
         returnAllPages();
         numPages = 0;
 
@@ -952,6 +945,149 @@ public class UserProcess {
         return 0;
     }
 
+    /**
+     * Handle the setDeadline() system call. Only supported when the kernel
+     * uses a <tt>DeadlineScheduler</tt>.
+     */
+    private int handleSetDeadline(int period, int budget) {
+	if (!(ThreadedKernel.scheduler instanceof DeadlineScheduler))
+	    return -1;
+
+	if (period < 0 || budget < 0 || budget > period ||
+	    (period > 0 && budget == 0))
+	    return -1;
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	((DeadlineScheduler) ThreadedKernel.scheduler)
+	    .setDeadline(KThread.currentThread(), period, budget);
+
+	Machine.interrupt().restore(intStatus);
+	return 0;
+    }
+
+    /**
+     * Handle the nextPeriod() system call.
+     */
+    private int handleNextPeriod() {
+	if (!(ThreadedKernel.scheduler instanceof DeadlineScheduler))
+	    return -1;
+
+	DeadlineScheduler scheduler =
+	    (DeadlineScheduler) ThreadedKernel.scheduler;
+
+	boolean intStatus = Machine.interrupt().disable();
+	boolean periodic =
+	    scheduler.getDeadline(KThread.currentThread()) != Long.MAX_VALUE;
+	Machine.interrupt().restore(intStatus);
+
+	if (!periodic)
+	    return -1;
+
+	scheduler.nextPeriod();
+	return 0;
+    }
+
+    /**
+     * Handle the futexWait() system call. A <i>timeout</i> of 0 waits until
+     * the thread is woken.
+     */
+    private int handleFutexWait(int vaddr, int expected, int timeout) {
+	if (timeout < 0)
+	    return -1;
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	int paddr = translateWord(vaddr);
+	int result = (paddr == -1) ? -1 :
+	    UserKernel.futexWait(paddr, expected, timeout);
+
+	Machine.interrupt().restore(intStatus);
+	return result;
+    }
+
+    /**
+     * Handle the futexWake() system call.
+     */
+    private int handleFutexWake(int vaddr, int count) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	int paddr = translateWord(vaddr);
+	int result = (paddr == -1) ? -1 : UserKernel.futexWake(paddr, count);
+
+	Machine.interrupt().restore(intStatus);
+	return result;
+    }
+
+    /**
+     * Translate the virtual address of a word of this process to the
+     * physical address it currently occupies. The inverted page table is
+     * used rather than <tt>pageTable</tt>, since it is what the paging code
+     * keeps current when a page is evicted.
+     *
+     * @param	vaddr	the virtual address of the word.
+     * @return	the physical address, or -1 if the address is unaligned or
+     *		not mapped to a resident page.
+     */
+    private int translateWord(int vaddr) {
+	if (vaddr < 0 || vaddr % 4 != 0)
+	    return -1;
+
+	int vpn = Processor.pageFromAddress(vaddr);
+	if (vpn >= numPages)
+	    return -1;
+
+	TranslationEntry entry =
+	    invertedPageTable.get(new InvertedPageTableIndex(processId, vpn));
+	if (entry == null || !entry.valid)
+	    return -1;
+
+	return Processor.makeAddress(entry.ppn,
+				     Processor.offsetFromAddress(vaddr));
+    }
+
+    /**
+     * Handle the sharePage() system call. The shared page is mapped after
+     * the last page of the address space; a process that asks for the same
+     * key twice gets the same address back.
+     */
+    private int handleSharePage(int key) {
+	Integer vpn = sharedPages.get(key);
+	if (vpn != null)
+	    return Processor.makeAddress(vpn, 0);
+
+	if (numPages >= pageTable.length)
+	    return -1;
+
+	int ppn = UserKernel.acquireSharedPage(key);
+	if (ppn == -1)
+	    return -1;
+
+	vpn = numPages++;
+	pageTable[vpn] = new TranslationEntry(vpn, ppn, true, false, false, false);
+	invertedPageTable.put(new InvertedPageTableIndex(processId, vpn),
+			      new TranslationEntry(pageTable[vpn]));
+	sharedPages.put(key, vpn);
+
+	return Processor.makeAddress(vpn, 0);
+    }
+
+    /**
+     * Unmap every shared page of this process, so that
+     * <tt>returnAllPages()</tt> does not free them while other processes
+     * still use them.
+     */
+    private void releaseSharedPages() {
+	for (Map.Entry<Integer,Integer> shared : sharedPages.entrySet()) {
+	    int vpn = shared.getValue();
+	    pageTable[vpn] = new TranslationEntry(vpn, 0, false, false, false, false);
+	    invertedPageTable.remove(new InvertedPageTableIndex(processId, vpn));
+	    UserKernel.releaseSharedPage(shared.getKey());
+	}
+
+	sharedPages.clear();
+    }
+
     private static final int
         syscallHalt = 0,
 	syscallExit = 1,
@@ -962,7 +1098,12 @@ public class UserProcess {
 	syscallRead = 6,
 	syscallWrite = 7,
 	syscallClose = 8,
-	syscallUnlink = 9;
+	syscallUnlink = 9,
+	syscallSetDeadline = 13,
+	syscallNextPeriod = 14,
+	syscallFutexWait = 15,
+	syscallFutexWake = 16,
+	syscallSharePage = 17;
 
     /**
      * Handle a syscall exception. Called by <tt>handleException()</tt>. The
@@ -983,6 +1124,14 @@ public class UserProcess {
      *								</tt></td></tr>
      * <tr><td>8</td><td><tt>int  close(int fd);</tt></td></tr>
      * <tr><td>9</td><td><tt>int  unlink(char *name);</tt></td></tr>
+     * <tr><td>13</td><td><tt>int  setDeadline(int period, int budget);
+     *								</tt></td></tr>
+     * <tr><td>14</td><td><tt>int  nextPeriod();</tt></td></tr>
+     * <tr><td>15</td><td><tt>int  futexWait(int *addr, int expected,
+     *					 int timeout);</tt></td></tr>
+     * <tr><td>16</td><td><tt>int  futexWake(int *addr, int count);
+     *								</tt></td></tr>
+     * <tr><td>17</td><td><tt>int *sharePage(int key);</tt></td></tr>
      * </table>
      * 
      * @param	syscall	the syscall number.
@@ -1012,6 +1161,21 @@ public class UserProcess {
          case syscallExit:
              return handleExit(a0);
 
+	case syscallSetDeadline:
+	    return handleSetDeadline(a0, a1);
+
+	case syscallNextPeriod:
+	    return handleNextPeriod();
+
+	case syscallFutexWait:
+	    return handleFutexWait(a0, a1, a2);
+
+	case syscallFutexWake:
+	    return handleFutexWake(a0, a1);
+
+	case syscallSharePage:
+	    return handleSharePage(a0);
+
 	default:
 	    Lib.debug(dbgProcess, "Unknown syscall " + syscall);
 	    Lib.assertNotReached("Unknown system call!");
@@ -1086,6 +1250,13 @@ public class UserProcess {
     private HashMap<Integer,Integer> childStatus;
     private UThread myThread;
 
+    /**
+     * The virtual page at which each shared page of this process is mapped,
+     * keyed by the key it was shared under.
+     */
+    private HashMap<Integer,Integer> sharedPages =
+	new HashMap<Integer,Integer>();
+
 
 
     // for proj 3
@@ -32,15 +32,9 @@ public class VMProcess extends UserProcess {
      * <tt>UThread.restoreState()</tt>.
      */
     public void restoreState() {
-        int tlbSize = nachos.machine.Machine.processor().getTLBSize();
-        //System.out.println(tlbSize);
-        for(int i=0;i<tlbSize;i++)
-        {
-            nachos.machine.TranslationEntry t = nachos.machine.Machine.processor().readTLBEntry(i);
-            t.valid = false;
-            nachos.machine.Machine.processor().writeTLBEntry(i,t);
-
-        }
+        // TLB entries are tagged with the process id, so entries belonging
+        // to other processes can stay in the TLB
+        Machine.processor().setASID(processId);
 	//super.restoreState();
     }
 
@@ -125,7 +119,9 @@ public class VMProcess extends UserProcess {
         }
         int index = -5;
         Processor p= nachos.machine.Machine.processor();
-        for(int i=0;i<p.getTLBSize();i++)
+        int set = p.getTLBSet(vpn);
+        int ways = p.getTLBWays();
+        for(int i=set;i<set+ways;i++)
         {
             if(p.readTLBEntry(i).valid == false)
             {
@@ -136,13 +132,15 @@ public class VMProcess extends UserProcess {
 
         if(index == -5)
         {
-            int temp = (int) Math.floor((Math.random()*p.getTLBSize()));
-            index = temp%p.getTLBSize();
+            int temp = (int) Math.floor((Math.random()*ways));
+            index = set + temp%ways;
         }
 
         //System.out.println(index);
 
-        p.writeTLBEntry(index,t);
+        nachos.machine.TranslationEntry entry = new nachos.machine.TranslationEntry(t);
+        entry.asid = processId;
+        p.writeTLBEntry(index,entry);
 
     }
     private static final int pageSize = Processor.pageSize;